@@ -0,0 +1,125 @@
+package top.ilay.authpasskey;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Lets duplicate submissions of the same assertion share one verification.
+ *
+ * <p>Double clicks and client retries post an assertion twice. Only the first submission can
+ * consume the challenge, so the second used to repeat the credential lookup and the signature
+ * check only to fail with "会话挑战信息不存在". Submissions are keyed by challenge session and
+ * credential ID and belong to the client that posted them, identified by the owner token it was
+ * given along with the challenge. While the first submission is in flight, and for a few seconds
+ * after it succeeded, an identical submission of the same owner gets its result instead of
+ * running again. Anything else under the same key, a different payload or the same payload
+ * without the owner token, is rejected, its challenge is gone. Failures are not remembered
+ * beyond the submissions already waiting on them.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+public class AssertionCoalescer {
+
+    static final Duration MEMO_TTL = Duration.ofSeconds(10);
+    static final int MAXIMUM_SIZE = 10_000;
+
+    private final Cache<Key, Submission> submissions = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .expireAfterWrite(MEMO_TTL)
+        .build();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+
+    /**
+     * Run the pipeline for the submission, or join the run of an identical one.
+     *
+     * @param owner token of the client that posted the submission, a submission without one
+     *     never shares the result of another
+     * @param sessionId ID of the challenge session
+     * @param digest identifies the payload, see {@link #digest(byte[]...)}
+     * @param pipeline the verification and sign-in, only subscribed to for the first submission
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> coalesce(String owner, String sessionId, String credentialId,
+        byte[] digest, Supplier<Mono<T>> pipeline) {
+        return Mono.defer(() -> {
+            var key = new Key(sessionId, credentialId);
+            var submission = new Submission(key, owner, digest, pipeline);
+            var existing = submissions.asMap().putIfAbsent(key, submission);
+            if (existing == null) {
+                executions.increment();
+                return (Mono<T>) submission.result;
+            }
+            if (owner == null || !owner.equals(existing.owner)
+                || !MessageDigest.isEqual(existing.digest, digest)) {
+                mismatched.increment();
+                return Mono.error(new IllegalStateException("会话挑战信息不存在"));
+            }
+            coalesced.increment();
+            return (Mono<T>) existing.result;
+        });
+    }
+
+    public Stats stats() {
+        return new Stats(submissions.estimatedSize(), executions.sum(), coalesced.sum(),
+            mismatched.sum());
+    }
+
+    /**
+     * SHA-256 over the length-prefixed parts, null parts included as such.
+     */
+    public static byte[] digest(byte[]... parts) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+        var length = ByteBuffer.allocate(Integer.BYTES);
+        for (byte[] part : parts) {
+            sha256.update(length.clear().putInt(part == null ? -1 : part.length).array());
+            if (part != null) {
+                sha256.update(part);
+            }
+        }
+        return sha256.digest();
+    }
+
+    private record Key(String sessionId, String credentialId) {}
+
+    private final class Submission {
+
+        final String owner;
+        final byte[] digest;
+        final Mono<Object> result;
+
+        Submission(Key key, String owner, byte[] digest, Supplier<? extends Mono<?>> pipeline) {
+            this.owner = owner;
+            this.digest = digest;
+            // Subscribed with the context of the first submission, so its timings are recorded
+            this.result = Mono.<Object>defer(pipeline)
+                .doOnError(e -> submissions.asMap().remove(key, this))
+                .cache();
+        }
+    }
+
+    /**
+     * @param submissions in flight or remembered
+     * @param executions submissions that ran the pipeline
+     * @param coalesced duplicates that shared the result of another submission
+     * @param mismatched submissions rejected for reusing a key with a different payload or from
+     *     another owner
+     */
+    public record Stats(long submissions, long executions, long coalesced, long mismatched) {}
+}
@@ -0,0 +1,130 @@
+package top.ilay.authpasskey;
+
+import com.webauthn4j.WebAuthnManager;
+import com.webauthn4j.converter.util.ObjectConverter;
+import com.webauthn4j.verifier.attestation.statement.androidkey.AndroidKeyAttestationStatementVerifier;
+import com.webauthn4j.verifier.attestation.statement.androidsafetynet.AndroidSafetyNetAttestationStatementVerifier;
+import com.webauthn4j.verifier.attestation.statement.apple.AppleAnonymousAttestationStatementVerifier;
+import com.webauthn4j.verifier.attestation.statement.packed.PackedAttestationStatementVerifier;
+import com.webauthn4j.verifier.attestation.statement.tpm.TPMAttestationStatementVerifier;
+import com.webauthn4j.verifier.attestation.statement.u2f.FIDOU2FAttestationStatementVerifier;
+import com.webauthn4j.verifier.attestation.trustworthiness.certpath.DefaultCertPathTrustworthinessVerifier;
+import com.webauthn4j.verifier.attestation.trustworthiness.self.DefaultSelfAttestationTrustworthinessVerifier;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Decides how registration attestations are verified.
+ *
+ * <p>In the default non-strict mode attestation is not verified at all. In strict mode only
+ * attestations chaining up to a trust anchor loaded from the configured directory are accepted,
+ * {@code none} and self attestation are rejected.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+@Component
+public class AttestationPolicy {
+
+    private final PasskeySettings settings;
+    private final ObjectConverter objectConverter = new ObjectConverter();
+    private final WebAuthnManager nonStrictManager =
+        WebAuthnManager.createNonStrictWebAuthnManager(objectConverter);
+
+    private volatile State state;
+
+    public AttestationPolicy(PasskeySettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * The attestation conveyance preference sent to the client.
+     */
+    public String conveyancePreference() {
+        return settings.attestation().strictEnabled() ? "direct" : "none";
+    }
+
+    /**
+     * The manager used to verify registrations under the current settings.
+     */
+    public WebAuthnManager registrationManager() {
+        var attestation = settings.attestation();
+        if (!attestation.strictEnabled()) {
+            return nonStrictManager;
+        }
+        var current = state;
+        if (current == null || !current.settings().equals(attestation)) {
+            current = rebuild(attestation);
+        }
+        return current.manager();
+    }
+
+    public Stats stats() {
+        var current = state;
+        if (current == null || !settings.attestation().strictEnabled()) {
+            return new Stats(false, 0, 0, 0);
+        }
+        return new Stats(true, current.repository().size(), current.certPathVerifier().hits(),
+            current.certPathVerifier().misses());
+    }
+
+    private synchronized State rebuild(PasskeySettings.Attestation attestation) {
+        var current = state;
+        if (current != null && current.settings().equals(attestation)) {
+            return current;
+        }
+        var repository = loadRepository(attestation.trustAnchorDirectory());
+        var certPathVerifier = new CachingCertPathTrustworthinessVerifier(
+            new DefaultCertPathTrustworthinessVerifier(repository));
+        var selfAttestationVerifier = new DefaultSelfAttestationTrustworthinessVerifier();
+        selfAttestationVerifier.setSelfAttestationAllowed(false);
+        var manager = new WebAuthnManager(
+            List.of(
+                new PackedAttestationStatementVerifier(),
+                new FIDOU2FAttestationStatementVerifier(),
+                new AndroidKeyAttestationStatementVerifier(),
+                new AndroidSafetyNetAttestationStatementVerifier(),
+                new TPMAttestationStatementVerifier(),
+                new AppleAnonymousAttestationStatementVerifier()
+            ),
+            certPathVerifier,
+            selfAttestationVerifier,
+            objectConverter
+        );
+        var rebuilt = new State(attestation, repository, certPathVerifier, manager);
+        this.state = rebuilt;
+        return rebuilt;
+    }
+
+    private static IndexedTrustAnchorRepository loadRepository(String directory) {
+        if (!StringUtils.hasText(directory)) {
+            log.warn("Strict attestation is enabled but no trust anchor directory is configured, "
+                + "every registration will be rejected");
+            return IndexedTrustAnchorRepository.EMPTY;
+        }
+        try {
+            var repository = IndexedTrustAnchorRepository.load(Path.of(directory));
+            log.info("Loaded {} passkey trust anchor entries from {}", repository.size(),
+                directory);
+            return repository;
+        } catch (IOException e) {
+            log.error("Failed to load passkey trust anchors from {}", directory, e);
+            return IndexedTrustAnchorRepository.EMPTY;
+        }
+    }
+
+    private record State(
+        PasskeySettings.Attestation settings,
+        IndexedTrustAnchorRepository repository,
+        CachingCertPathTrustworthinessVerifier certPathVerifier,
+        WebAuthnManager manager
+    ) {}
+
+    public record Stats(boolean strict, int trustAnchorEntries, long certPathCacheHits,
+                        long certPathCacheMisses) {}
+}
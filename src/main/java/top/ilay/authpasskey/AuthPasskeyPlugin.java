@@ -1,5 +1,6 @@
 package top.ilay.authpasskey;
 
+import java.time.Instant;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import run.halo.app.extension.Scheme;
@@ -39,6 +40,18 @@ public class AuthPasskeyPlugin extends BasePlugin {
                 .unique(true)
             );
         });
+        schemeManager.register(PasskeyAuditEvent.class, indexSpecs -> {
+            indexSpecs.add(IndexSpecs.<PasskeyAuditEvent, String>single("spec.username", String.class)
+                .indexFunc(event -> event.getSpec().getUsername())
+                .nullable(true)
+            );
+            indexSpecs.add(IndexSpecs.<PasskeyAuditEvent, String>single("spec.type", String.class)
+                .indexFunc(event -> event.getSpec().getType().name())
+            );
+            indexSpecs.add(IndexSpecs.<PasskeyAuditEvent, Instant>single("spec.occurredAt", Instant.class)
+                .indexFunc(event -> event.getSpec().getOccurredAt())
+            );
+        });
         log.info("Passkey authentication plugin started successfully!");
     }
 
@@ -46,6 +59,7 @@ public class AuthPasskeyPlugin extends BasePlugin {
     public void stop() {
         log.info("Passkey authentication plugin stopping...");
         schemeManager.unregister(Scheme.buildFromType(PasskeyCredential.class));
+        schemeManager.unregister(Scheme.buildFromType(PasskeyAuditEvent.class));
         log.info("Passkey authentication plugin stopped!");
     }
 }
@@ -0,0 +1,114 @@
+package top.ilay.authpasskey;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free multi-producer ring buffer.
+ *
+ * <p>Every slot carries a sequence number which tells producers and consumers whether the slot
+ * is free or published, so {@link #offer(Object)} never blocks and simply fails when the buffer
+ * is full.</p>
+ *
+ * @param <T> element type
+ * @author ilay
+ * @since 1.1.0
+ */
+class BoundedRingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * Create a ring buffer, the capacity is rounded up to the next power of two.
+     */
+    BoundedRingBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Publish an element, returns false if the buffer is full.
+     */
+    boolean offer(T element) {
+        long position = producerIndex.get();
+        for (;;) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (producerIndex.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = producerIndex.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = producerIndex.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest published element, returns null if the buffer is empty.
+     */
+    T poll() {
+        long position = consumerIndex.get();
+        for (;;) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (consumerIndex.compareAndSet(position, position + 1)) {
+                    T element = elements.getAndSet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = consumerIndex.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = consumerIndex.get();
+            }
+        }
+    }
+
+    /**
+     * Move at most {@code maxElements} elements into the given collection.
+     */
+    int drainTo(Collection<? super T> target, int maxElements) {
+        int drained = 0;
+        T element;
+        while (drained < maxElements && (element = poll()) != null) {
+            target.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
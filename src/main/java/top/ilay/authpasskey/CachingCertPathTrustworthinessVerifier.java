@@ -0,0 +1,94 @@
+package top.ilay.authpasskey;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.webauthn4j.data.attestation.authenticator.AAGUID;
+import com.webauthn4j.data.attestation.statement.CertificateBaseAttestationStatement;
+import com.webauthn4j.verifier.attestation.trustworthiness.certpath.CertPathTrustworthinessVerifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches successful certificate path validations.
+ *
+ * <p>FIDO certified authenticators share batch attestation certificates across a whole model, so
+ * the same chain is validated again and again. A successful PKIX validation is remembered per
+ * AAGUID and chain fingerprint until the chain's earliest {@code notAfter} or the cache TTL,
+ * whichever comes first. Failures are never cached.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+class CachingCertPathTrustworthinessVerifier implements CertPathTrustworthinessVerifier {
+
+    static final Duration TTL = Duration.ofHours(1);
+    static final int MAXIMUM_SIZE = 1024;
+
+    private final CertPathTrustworthinessVerifier delegate;
+    private final Cache<String, Instant> validated = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .expireAfterWrite(TTL)
+        .build();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    CachingCertPathTrustworthinessVerifier(CertPathTrustworthinessVerifier delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void verify(AAGUID aaguid, CertificateBaseAttestationStatement attestationStatement,
+        Instant timestamp) {
+        var certificates = attestationStatement.getX5c();
+        if (certificates == null || certificates.isEmpty()) {
+            delegate.verify(aaguid, attestationStatement, timestamp);
+            return;
+        }
+        String key = cacheKey(aaguid, certificates);
+        Instant validUntil = validated.getIfPresent(key);
+        if (validUntil != null && timestamp.isBefore(validUntil)) {
+            hits.increment();
+            return;
+        }
+        misses.increment();
+        delegate.verify(aaguid, attestationStatement, timestamp);
+        validated.put(key, earliestExpiry(certificates));
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private static String cacheKey(AAGUID aaguid, Iterable<X509Certificate> certificates) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate certificate : certificates) {
+                digest.update(certificate.getEncoded());
+            }
+            return aaguid + ":" + HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            throw new IllegalStateException("无法计算证书链指纹", e);
+        }
+    }
+
+    private static Instant earliestExpiry(Iterable<X509Certificate> certificates) {
+        Instant earliest = Instant.MAX;
+        for (X509Certificate certificate : certificates) {
+            Instant notAfter = certificate.getNotAfter().toInstant();
+            if (notAfter.isBefore(earliest)) {
+                earliest = notAfter;
+            }
+        }
+        return earliest;
+    }
+}
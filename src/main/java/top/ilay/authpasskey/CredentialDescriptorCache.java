@@ -0,0 +1,127 @@
+package top.ilay.authpasskey;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.event.PluginStartedEvent;
+
+/**
+ * Per-user cache of JSON encoded public key credential descriptors, including transports, as
+ * used for {@code allowCredentials} and {@code excludeCredentials}.
+ *
+ * <p>The cache watches {@link PasskeyCredential} events only. A user's entry is invalidated
+ * when one of their credentials is added or deleted, or updated in a way that changes its
+ * owner, ID or transports; counter and last-used updates of every sign-in leave it alone. Should
+ * an event be missed, sign-in options keep offering a deleted credential in
+ * {@code allowCredentials}, or leave out a new one, and registration may not exclude an
+ * authenticator that is already registered, until the entry expires after {@link #TTL}. None of
+ * that lets anyone in, an assertion is always checked against the stored credential.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+public class CredentialDescriptorCache implements DisposableBean {
+
+    static final int MAXIMUM_SIZE = 10_000;
+    static final Duration TTL = Duration.ofMinutes(30);
+
+    private final ReactiveExtensionClient extensionClient;
+    private final PasskeyCredentialService credentialService;
+
+    private final AsyncCache<String, byte[]> descriptors = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .expireAfterWrite(TTL)
+        .buildAsync();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final InvalidatingWatcher watcher =
+        new InvalidatingWatcher(this::invalidate, this::onUpdate, this::invalidate);
+
+    public CredentialDescriptorCache(ReactiveExtensionClient extensionClient,
+        PasskeyCredentialService credentialService) {
+        this.extensionClient = extensionClient;
+        this.credentialService = credentialService;
+    }
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        watcher.watch(extensionClient);
+    }
+
+    @Override
+    public void destroy() {
+        watcher.dispose();
+    }
+
+    /**
+     * The encoded descriptors of all credentials of the given user.
+     */
+    public Mono<byte[]> get(String username) {
+        return Mono.fromFuture(() -> {
+            var cached = descriptors.getIfPresent(username);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            return descriptors.get(username, (key, executor) -> {
+                misses.increment();
+                return credentialService.findByUsernameForSignIn(key)
+                    .collectList()
+                    .map(PasskeyOptionsEncoder::descriptors)
+                    .toFuture();
+            });
+        });
+    }
+
+    public Stats stats() {
+        return new Stats(descriptors.synchronous().estimatedSize(), hits.sum(), misses.sum(),
+            invalidations.sum());
+    }
+
+    private void onUpdate(Extension oldExtension, Extension newExtension) {
+        // Every sign-in updates the signature counter, only changes to what the descriptors
+        // contain should evict them.
+        if (oldExtension instanceof PasskeyCredential oldCredential
+            && newExtension instanceof PasskeyCredential newCredential
+            && !descriptorChanged(oldCredential, newCredential)) {
+            return;
+        }
+        invalidate(oldExtension);
+        invalidate(newExtension);
+    }
+
+    private void invalidate(Extension extension) {
+        if (extension instanceof PasskeyCredential credential && credential.getSpec() != null
+            && credential.getSpec().getUsername() != null) {
+            invalidations.increment();
+            descriptors.synchronous().invalidate(credential.getSpec().getUsername());
+        }
+    }
+
+    private static boolean descriptorChanged(PasskeyCredential oldCredential,
+        PasskeyCredential newCredential) {
+        var oldSpec = oldCredential.getSpec();
+        var newSpec = newCredential.getSpec();
+        if (oldSpec == null || newSpec == null) {
+            return true;
+        }
+        return !Objects.equals(oldSpec.getUsername(), newSpec.getUsername())
+            || !Objects.equals(oldSpec.getCredentialId(), newSpec.getCredentialId())
+            || !Arrays.equals(oldSpec.getTransports(), newSpec.getTransports())
+            || !Objects.equals(oldCredential.getMetadata().getDeletionTimestamp(),
+            newCredential.getMetadata().getDeletionTimestamp());
+    }
+
+    public record Stats(long size, long hits, long misses, long invalidations) {}
+}
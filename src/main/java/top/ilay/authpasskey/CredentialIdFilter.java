@@ -0,0 +1,212 @@
+package top.ilay.authpasskey;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.event.PluginStartedEvent;
+
+/**
+ * In-memory membership filter over the credential IDs of all {@link PasskeyCredential}s.
+ *
+ * <p>The anonymous authentication endpoint accepts arbitrary credential IDs, this filter lets
+ * clearly unknown ones be rejected without querying the extension store. It is built from a
+ * full listing when the plugin starts and kept up to date by watching credential creation and
+ * deletion. While the filter is being (re)built every credential ID is let through.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+@Component
+public class CredentialIdFilter implements DisposableBean {
+
+    static final int MINIMUM_CAPACITY = 1024;
+
+    private final ReactiveExtensionClient extensionClient;
+
+    /**
+     * The filter answering lookups, {@code null} while rebuilding.
+     */
+    private volatile CuckooFilter active;
+
+    /**
+     * The filter being built, receives additions made while the listing is running.
+     */
+    private volatile CuckooFilter building;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final InvalidatingWatcher watcher =
+        new InvalidatingWatcher(this::onAdd, this::onUpdate, this::onDelete);
+
+    public CredentialIdFilter(ReactiveExtensionClient extensionClient) {
+        this.extensionClient = extensionClient;
+    }
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        // Watch before listing so that nothing created in between is missed
+        watcher.watch(extensionClient);
+        rebuild(MINIMUM_CAPACITY);
+    }
+
+    @Override
+    public void destroy() {
+        watcher.dispose();
+    }
+
+    /**
+     * Whether a credential with the given ID may exist. {@code false} means it definitely does
+     * not.
+     */
+    public boolean mightContain(String credentialId) {
+        lookups.increment();
+        var filter = active;
+        if (filter == null || filter.mightContain(credentialId)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Record that a credential ID let through by the filter did not exist.
+     */
+    public void recordFalsePositive() {
+        if (active != null) {
+            falsePositives.increment();
+        }
+    }
+
+    public Stats stats() {
+        var filter = active;
+        long rejectedCount = rejected.sum();
+        long falsePositiveCount = falsePositives.sum();
+        long unknown = rejectedCount + falsePositiveCount;
+        return new Stats(
+            filter != null,
+            filter == null ? 0 : filter.size(),
+            filter == null ? 0 : filter.capacity(),
+            lookups.sum(),
+            rejectedCount,
+            falsePositiveCount,
+            unknown == 0 ? 0 : (double) falsePositiveCount / unknown
+        );
+    }
+
+    private void onAdd(Extension extension) {
+        if (extension instanceof PasskeyCredential credential) {
+            add(credentialId(credential));
+        }
+    }
+
+    private void onUpdate(Extension oldExtension, Extension newExtension) {
+        if (oldExtension instanceof PasskeyCredential oldCredential
+            && newExtension instanceof PasskeyCredential newCredential) {
+            String oldId = credentialId(oldCredential);
+            String newId = credentialId(newCredential);
+            if (!Objects.equals(oldId, newId)) {
+                add(newId);
+                remove(oldId);
+            }
+        }
+    }
+
+    private void onDelete(Extension extension) {
+        if (extension instanceof PasskeyCredential credential) {
+            remove(credentialId(credential));
+        }
+    }
+
+    private void add(String credentialId) {
+        if (credentialId == null) {
+            return;
+        }
+        // Read building before active, a finished build publishes active before clearing
+        // building, so at least one of them is seen.
+        var pending = building;
+        var filter = active;
+        if (pending != null) {
+            pending.add(credentialId);
+        }
+        if (filter != null && filter != pending && !filter.add(credentialId)) {
+            log.info("Passkey credential ID filter is full, rebuilding");
+            rebuild(filter.capacity() * 2);
+        }
+    }
+
+    private void remove(String credentialId) {
+        // Removals are not applied to a filter being built: the ID may not have been added to
+        // it yet, and removing an absent item could drop another ID's fingerprint.
+        var filter = active;
+        if (credentialId != null && filter != null && filter != building) {
+            filter.remove(credentialId);
+        }
+    }
+
+    private void rebuild(int minimumCapacity) {
+        if (watcher.isDisposed() || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        active = null;
+        build(minimumCapacity)
+            .doFinally(signal -> rebuilding.set(false))
+            .subscribe(
+                filter -> log.info("Built passkey credential ID filter with {} entries",
+                    filter.size()),
+                error -> log.error("Failed to build passkey credential ID filter", error)
+            );
+    }
+
+    private Mono<CuckooFilter> build(int minimumCapacity) {
+        var listOptions = ListOptions.builder().build();
+        return extensionClient.countBy(PasskeyCredential.class, listOptions)
+            .flatMap(count -> {
+                int capacity = (int) Math.min(Math.max(minimumCapacity, count * 2),
+                    CuckooFilter.MAXIMUM_CAPACITY);
+                var filter = new CuckooFilter(capacity);
+                building = filter;
+                return extensionClient.listAll(PasskeyCredential.class, listOptions, null)
+                    .map(CredentialIdFilter::credentialId)
+                    .filter(Objects::nonNull)
+                    .all(filter::add)
+                    .flatMap(complete -> {
+                        if (complete && !filter.isFull()) {
+                            active = filter;
+                            building = null;
+                            return Mono.just(filter);
+                        }
+                        if (filter.capacity() >= CuckooFilter.MAXIMUM_CAPACITY) {
+                            building = null;
+                            return Mono.error(new IllegalStateException("凭证过滤器容量不足"));
+                        }
+                        return build(filter.capacity() * 2);
+                    });
+            })
+            .doOnError(error -> building = null);
+    }
+
+    private static String credentialId(PasskeyCredential credential) {
+        return credential.getSpec() == null ? null : credential.getSpec().getCredentialId();
+    }
+
+    public record Stats(
+        boolean ready,
+        int entries,
+        int capacity,
+        long lookups,
+        long rejected,
+        long falsePositives,
+        double falsePositiveRate
+    ) {}
+}
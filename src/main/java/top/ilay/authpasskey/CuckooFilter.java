@@ -0,0 +1,169 @@
+package top.ilay.authpasskey;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A cuckoo filter over strings with 16-bit fingerprints and four slots per bucket.
+ *
+ * <p>Answers "definitely not present" or "possibly present" like a Bloom filter, but also
+ * supports removal. Only remove items that were added before, removing anything else may
+ * delete the fingerprint of another item and cause a false negative. With a load below 95% the
+ * false positive rate stays under about 0.02%.</p>
+ *
+ * <p>Once an insertion runs out of relocation attempts the displaced fingerprint is kept aside,
+ * so no previously added item is lost, and every further {@link #add(String)} fails until the
+ * filter is rebuilt with a larger capacity.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+class CuckooFilter {
+
+    static final int SLOTS_PER_BUCKET = 4;
+    static final int MAXIMUM_CAPACITY = 1 << 26;
+    static final int MAX_KICKS = 500;
+
+    private final short[] table;
+    private final int bucketMask;
+    private int size;
+    private boolean full;
+    private short victimFingerprint;
+    private int victimIndex;
+
+    CuckooFilter(int capacity) {
+        int buckets = Math.max(1, Math.min(capacity, MAXIMUM_CAPACITY) / SLOTS_PER_BUCKET);
+        buckets = Integer.highestOneBit(buckets - 1) << 1;
+        this.table = new short[Math.max(1, buckets) * SLOTS_PER_BUCKET];
+        this.bucketMask = Math.max(1, buckets) - 1;
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isFull() {
+        return full;
+    }
+
+    synchronized boolean add(String item) {
+        if (full) {
+            return false;
+        }
+        long hash = hash(item);
+        short fingerprint = fingerprint(hash);
+        int index = (int) hash & bucketMask;
+        if (insert(index, fingerprint) || insert(alternate(index, fingerprint), fingerprint)) {
+            size++;
+            return true;
+        }
+        var random = ThreadLocalRandom.current();
+        if (random.nextBoolean()) {
+            index = alternate(index, fingerprint);
+        }
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int slot = index * SLOTS_PER_BUCKET + random.nextInt(SLOTS_PER_BUCKET);
+            short evicted = table[slot];
+            table[slot] = fingerprint;
+            fingerprint = evicted;
+            index = alternate(index, fingerprint);
+            if (insert(index, fingerprint)) {
+                size++;
+                return true;
+            }
+        }
+        full = true;
+        victimFingerprint = fingerprint;
+        victimIndex = index;
+        size++;
+        return true;
+    }
+
+    synchronized boolean mightContain(String item) {
+        long hash = hash(item);
+        short fingerprint = fingerprint(hash);
+        int index = (int) hash & bucketMask;
+        int alternate = alternate(index, fingerprint);
+        if (full && victimFingerprint == fingerprint
+            && (victimIndex == index || victimIndex == alternate)) {
+            return true;
+        }
+        return find(index, fingerprint) >= 0 || find(alternate, fingerprint) >= 0;
+    }
+
+    synchronized boolean remove(String item) {
+        long hash = hash(item);
+        short fingerprint = fingerprint(hash);
+        int index = (int) hash & bucketMask;
+        int alternate = alternate(index, fingerprint);
+        int slot = find(index, fingerprint);
+        if (slot < 0) {
+            slot = find(alternate, fingerprint);
+        }
+        if (slot >= 0) {
+            table[slot] = 0;
+        } else if (full && victimFingerprint == fingerprint
+            && (victimIndex == index || victimIndex == alternate)) {
+            full = false;
+            size--;
+            return true;
+        } else {
+            return false;
+        }
+        size--;
+        if (full && insert(victimIndex, victimFingerprint)) {
+            full = false;
+        }
+        return true;
+    }
+
+    private boolean insert(int index, short fingerprint) {
+        int base = index * SLOTS_PER_BUCKET;
+        for (int i = 0; i < SLOTS_PER_BUCKET; i++) {
+            if (table[base + i] == 0) {
+                table[base + i] = fingerprint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int find(int index, short fingerprint) {
+        int base = index * SLOTS_PER_BUCKET;
+        for (int i = 0; i < SLOTS_PER_BUCKET; i++) {
+            if (table[base + i] == fingerprint) {
+                return base + i;
+            }
+        }
+        return -1;
+    }
+
+    private int alternate(int index, short fingerprint) {
+        return (index ^ (int) mix(fingerprint)) & bucketMask;
+    }
+
+    private static short fingerprint(long hash) {
+        short fingerprint = (short) (hash >>> 48);
+        // Zero marks an empty slot
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static long hash(String item) {
+        // FNV-1a followed by a finalizer, the two halves are used for index and fingerprint
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < item.length(); i++) {
+            hash ^= item.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,155 @@
+package top.ilay.authpasskey;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webauthn4j.anchor.TrustAnchorRepository;
+import com.webauthn4j.data.attestation.authenticator.AAGUID;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An immutable, in-memory {@link TrustAnchorRepository} indexed by AAGUID and by attestation
+ * certificate key identifier.
+ *
+ * <p>Trust anchors are loaded once from a directory containing either FIDO metadata statements
+ * ({@code *.json}, using {@code aaguid}, {@code attestationCertificateKeyIdentifiers} and
+ * {@code attestationRootCertificates}) or PEM encoded root certificates named after the AAGUID
+ * they belong to ({@code <aaguid>.pem}).</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+class IndexedTrustAnchorRepository implements TrustAnchorRepository {
+
+    static final IndexedTrustAnchorRepository EMPTY =
+        new IndexedTrustAnchorRepository(Map.of(), Map.of());
+
+    private final Map<AAGUID, Set<TrustAnchor>> byAaguid;
+    private final Map<String, Set<TrustAnchor>> byKeyIdentifier;
+
+    IndexedTrustAnchorRepository(Map<AAGUID, Set<TrustAnchor>> byAaguid,
+        Map<String, Set<TrustAnchor>> byKeyIdentifier) {
+        this.byAaguid = Map.copyOf(byAaguid);
+        this.byKeyIdentifier = Map.copyOf(byKeyIdentifier);
+    }
+
+    @Override
+    public Set<TrustAnchor> find(AAGUID aaguid) {
+        return byAaguid.getOrDefault(aaguid, Set.of());
+    }
+
+    @Override
+    public Set<TrustAnchor> find(byte[] attestationCertificateKeyIdentifier) {
+        return byKeyIdentifier.getOrDefault(
+            HexFormat.of().formatHex(attestationCertificateKeyIdentifier), Set.of());
+    }
+
+    int size() {
+        return byAaguid.size() + byKeyIdentifier.size();
+    }
+
+    /**
+     * Load all trust anchors found directly under the given directory.
+     */
+    static IndexedTrustAnchorRepository load(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("信任锚目录不存在: " + directory);
+        }
+        var loader = new Loader();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.sorted().toList()) {
+                String fileName = file.getFileName().toString().toLowerCase();
+                try {
+                    if (fileName.endsWith(".json")) {
+                        loader.addMetadataStatement(file);
+                    } else if (fileName.endsWith(".pem") || fileName.endsWith(".crt")) {
+                        loader.addPem(file);
+                    }
+                } catch (IOException | CertificateException | IllegalArgumentException e) {
+                    log.warn("Skipped invalid trust anchor file {}", file, e);
+                }
+            }
+        }
+        return loader.build();
+    }
+
+    private static class Loader {
+
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final CertificateFactory certificateFactory;
+        private final Map<AAGUID, Set<TrustAnchor>> byAaguid = new HashMap<>();
+        private final Map<String, Set<TrustAnchor>> byKeyIdentifier = new HashMap<>();
+
+        Loader() {
+            try {
+                this.certificateFactory = CertificateFactory.getInstance("X.509");
+            } catch (CertificateException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void addMetadataStatement(Path file) throws IOException, CertificateException {
+            JsonNode statement = objectMapper.readTree(file.toFile());
+            Set<TrustAnchor> anchors = new HashSet<>();
+            for (JsonNode certificate : statement.path("attestationRootCertificates")) {
+                byte[] der = Base64.getMimeDecoder().decode(certificate.asText());
+                anchors.addAll(toTrustAnchors(new ByteArrayInputStream(der)));
+            }
+            if (anchors.isEmpty()) {
+                return;
+            }
+            if (statement.hasNonNull("aaguid")) {
+                add(new AAGUID(statement.get("aaguid").asText()), anchors);
+            }
+            for (JsonNode keyIdentifier : statement.path("attestationCertificateKeyIdentifiers")) {
+                byKeyIdentifier.computeIfAbsent(keyIdentifier.asText().toLowerCase(),
+                    key -> new HashSet<>()).addAll(anchors);
+            }
+        }
+
+        void addPem(Path file) throws IOException, CertificateException {
+            String fileName = file.getFileName().toString();
+            var aaguid = new AAGUID(fileName.substring(0, fileName.lastIndexOf('.')));
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                add(aaguid, toTrustAnchors(inputStream));
+            }
+        }
+
+        private void add(AAGUID aaguid, Set<TrustAnchor> anchors) {
+            byAaguid.computeIfAbsent(aaguid, key -> new HashSet<>()).addAll(anchors);
+        }
+
+        private Set<TrustAnchor> toTrustAnchors(InputStream inputStream)
+            throws CertificateException {
+            Set<TrustAnchor> anchors = new HashSet<>();
+            for (var certificate : certificateFactory.generateCertificates(inputStream)) {
+                anchors.add(new TrustAnchor((X509Certificate) certificate, null));
+            }
+            return anchors;
+        }
+
+        IndexedTrustAnchorRepository build() {
+            Map<AAGUID, Set<TrustAnchor>> aaguids = new HashMap<>();
+            byAaguid.forEach((key, value) -> aaguids.put(key, Set.copyOf(value)));
+            Map<String, Set<TrustAnchor>> keyIdentifiers = new HashMap<>();
+            byKeyIdentifier.forEach((key, value) -> keyIdentifiers.put(key, Set.copyOf(value)));
+            return new IndexedTrustAnchorRepository(aaguids, keyIdentifiers);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package top.ilay.authpasskey;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.Watcher;
+
+/**
+ * Hands extension events to the cache or index that keeps it, which only decides what to
+ * invalidate.
+ *
+ * <p>The owner starts watching once the plugin has started and disposes the watcher when it is
+ * destroyed, which unregisters it from the extension client. Events arriving after that are
+ * ignored.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+final class InvalidatingWatcher implements Watcher {
+
+    private final Consumer<Extension> added;
+    private final BiConsumer<Extension, Extension> updated;
+    private final Consumer<Extension> deleted;
+    private final List<Runnable> disposeHooks = new CopyOnWriteArrayList<>();
+    private volatile boolean disposed;
+
+    InvalidatingWatcher(Consumer<Extension> added, BiConsumer<Extension, Extension> updated,
+        Consumer<Extension> deleted) {
+        this.added = added;
+        this.updated = updated;
+        this.deleted = deleted;
+    }
+
+    void watch(ReactiveExtensionClient extensionClient) {
+        extensionClient.watch(this);
+    }
+
+    @Override
+    public void onAdd(Extension extension) {
+        if (!disposed) {
+            added.accept(extension);
+        }
+    }
+
+    @Override
+    public void onUpdate(Extension oldExtension, Extension newExtension) {
+        if (!disposed) {
+            updated.accept(oldExtension, newExtension);
+        }
+    }
+
+    @Override
+    public void onDelete(Extension extension) {
+        if (!disposed) {
+            deleted.accept(extension);
+        }
+    }
+
+    @Override
+    public void registerDisposeHook(Runnable dispose) {
+        disposeHooks.add(dispose);
+    }
+
+    @Override
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        disposeHooks.forEach(Runnable::run);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+}
@@ -0,0 +1,48 @@
+package top.ilay.authpasskey;
+
+import java.time.Duration;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import run.halo.app.security.AdditionalWebFilter;
+
+/**
+ * Marks the content-hashed login script served by the {@code auth-passkey-assets} reverse proxy
+ * as immutable, so browsers and CDNs keep it until the file name changes.
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+public class PasskeyAssetCacheWebFilter implements AdditionalWebFilter {
+
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365))
+        .cachePublic()
+        .immutable();
+
+    private final ServerWebExchangeMatcher hashedAssetMatcher = ServerWebExchangeMatchers
+        .pathMatchers(HttpMethod.GET, "/plugins/auth-passkey/assets/static/js/passkey-login.*.js");
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        return hashedAssetMatcher.matches(exchange)
+            .flatMap(result -> {
+                if (result.isMatch()) {
+                    var response = exchange.getResponse();
+                    response.beforeCommit(() -> {
+                        if (response.getStatusCode() != null
+                            && response.getStatusCode().is2xxSuccessful()) {
+                            response.getHeaders().setCacheControl(IMMUTABLE);
+                        }
+                        return Mono.empty();
+                    });
+                }
+                return chain.filter(exchange);
+            });
+    }
+}
@@ -0,0 +1,77 @@
+package top.ilay.authpasskey;
+
+import static io.swagger.v3.oas.annotations.media.Schema.RequiredMode.REQUIRED;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import run.halo.app.extension.AbstractExtension;
+import run.halo.app.extension.GVK;
+
+/**
+ * Audit record of a passkey related event, such as a registration or a sign-in attempt.
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Data
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+@GVK(group = "passkey.halo.run", version = "v1alpha1", kind = "PasskeyAuditEvent",
+    plural = "passkeyauditevents", singular = "passkeyauditevent")
+public class PasskeyAuditEvent extends AbstractExtension {
+
+    @Schema(requiredMode = REQUIRED)
+    private PasskeyAuditEventSpec spec;
+
+    public enum Type {
+        REGISTERED,
+        SIGN_IN_SUCCEEDED,
+        SIGN_IN_FAILED,
+        RENAMED,
+        DELETED
+    }
+
+    @Data
+    @ToString
+    public static class PasskeyAuditEventSpec {
+
+        @Schema(requiredMode = REQUIRED)
+        private Type type;
+
+        /**
+         * The username the event belongs to, may be null for a failed sign-in with an unknown
+         * credential.
+         */
+        private String username;
+
+        /**
+         * Base64url encoded credential ID involved in the event.
+         */
+        private String credentialId;
+
+        /**
+         * Metadata name of the credential involved in the event.
+         */
+        private String credentialName;
+
+        /**
+         * Display name of the credential, the new name for a rename event.
+         */
+        private String displayName;
+
+        /**
+         * Extra detail, such as the previous name of a renamed credential or a failure reason.
+         */
+        private String detail;
+
+        private String ipAddress;
+
+        private String userAgent;
+
+        @Schema(requiredMode = REQUIRED)
+        private Instant occurredAt;
+    }
+}
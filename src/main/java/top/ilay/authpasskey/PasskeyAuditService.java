@@ -0,0 +1,447 @@
+package top.ilay.authpasskey;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.netty.util.NetUtil;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import run.halo.app.extension.ExtensionUtil;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.ListResult;
+import run.halo.app.extension.Metadata;
+import run.halo.app.extension.PageRequestImpl;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.index.query.Queries;
+import run.halo.app.plugin.event.PluginStartedEvent;
+
+/**
+ * Asynchronous audit log of passkey events.
+ *
+ * <p>Callers only publish into a bounded lock-free ring buffer, a background writer drains the
+ * buffer and persists {@link PasskeyAuditEvent}s in batches, so recording an event never adds
+ * latency to the request. Events are dropped and counted when the buffer is full.</p>
+ *
+ * <p>Anyone can post assertions, so failed sign-ins are not allowed to fill the store: failures
+ * with an unknown credential are only counted, and at most {@link #MAX_FAILURES_PER_WINDOW}
+ * failures of a credential are persisted per {@link #FAILURE_WINDOW}.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+@Service
+public class PasskeyAuditService implements DisposableBean {
+
+    static final int BUFFER_CAPACITY = 4096;
+    static final int BATCH_SIZE = 256;
+    static final int WRITE_CONCURRENCY = 4;
+    static final Duration FLUSH_INTERVAL = Duration.ofSeconds(1);
+    static final Duration SWEEP_INTERVAL = Duration.ofHours(1);
+    static final int SWEEP_PAGE_SIZE = 200;
+    static final int MAX_FAILURES_PER_WINDOW = 10;
+    static final Duration FAILURE_WINDOW = Duration.ofMinutes(1);
+
+    private final ReactiveExtensionClient extensionClient;
+    private final PasskeySettings settings;
+
+    private final BoundedRingBuffer<PendingEvent> buffer =
+        new BoundedRingBuffer<>(BUFFER_CAPACITY);
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder swept = new LongAdder();
+    private final LongAdder unknownFailures = new LongAdder();
+    private final LongAdder suppressedFailures = new LongAdder();
+    private final Cache<String, AtomicInteger> recentFailures = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterWrite(FAILURE_WINDOW)
+        .build();
+    private volatile TrustedProxies trustedProxies = TrustedProxies.NONE;
+
+    private final Scheduler scheduler = Schedulers.newSingle("passkey-audit-writer", true);
+    private final Disposable.Composite tasks = Disposables.composite();
+
+    public PasskeyAuditService(ReactiveExtensionClient extensionClient,
+        PasskeySettings settings) {
+        this.extensionClient = extensionClient;
+        this.settings = settings;
+    }
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        tasks.add(scheduler.schedulePeriodically(this::flush,
+            FLUSH_INTERVAL.toMillis(), FLUSH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS));
+        tasks.add(scheduler.schedulePeriodically(this::sweep,
+            1, SWEEP_INTERVAL.toMinutes(), TimeUnit.MINUTES));
+    }
+
+    @Override
+    public void destroy() {
+        tasks.dispose();
+        // Best effort: write what is still buffered before the plugin goes away.
+        List<PendingEvent> remaining = new ArrayList<>();
+        buffer.drainTo(remaining, BUFFER_CAPACITY);
+        if (!remaining.isEmpty()) {
+            try {
+                persist(remaining).block(Duration.ofSeconds(5));
+            } catch (RuntimeException e) {
+                log.warn("Failed to flush {} passkey audit events on shutdown",
+                    remaining.size(), e);
+            }
+        }
+        scheduler.dispose();
+    }
+
+    public void registered(PasskeyCredential credential, ClientInfo client) {
+        var spec = credential.getSpec();
+        offer(new PendingEvent(PasskeyAuditEvent.Type.REGISTERED, spec.getUsername(),
+            spec.getCredentialId(), credential.getMetadata().getName(), spec.getDisplayName(),
+            null, client, Instant.now()));
+    }
+
+    public void signInSucceeded(PasskeyCredential credential, ClientInfo client) {
+        var spec = credential.getSpec();
+        offer(new PendingEvent(PasskeyAuditEvent.Type.SIGN_IN_SUCCEEDED, spec.getUsername(),
+            spec.getCredentialId(), credential.getMetadata().getName(), spec.getDisplayName(),
+            null, client, Instant.now()));
+    }
+
+    /**
+     * Record a failed sign-in.
+     *
+     * @param credential the credential the assertion was made with, {@code null} when it was
+     * not loaded; it is never looked up here, so unknown credential IDs cost no store query
+     * @param credentialId the credential ID the assertion claimed
+     */
+    public void signInFailed(PasskeyCredential credential, String credentialId, ClientInfo client,
+        String reason) {
+        if (credential == null) {
+            // Nobody could review it, and anyone can make up credential IDs
+            unknownFailures.increment();
+            return;
+        }
+        var spec = credential.getSpec();
+        var failures = recentFailures.get(spec.getCredentialId(), key -> new AtomicInteger());
+        if (failures.incrementAndGet() > MAX_FAILURES_PER_WINDOW) {
+            suppressedFailures.increment();
+            return;
+        }
+        offer(new PendingEvent(PasskeyAuditEvent.Type.SIGN_IN_FAILED, spec.getUsername(),
+            spec.getCredentialId(), credential.getMetadata().getName(), spec.getDisplayName(),
+            reason, client, Instant.now()));
+    }
+
+    public void renamed(PasskeyCredential credential, String previousName, ClientInfo client) {
+        var spec = credential.getSpec();
+        offer(new PendingEvent(PasskeyAuditEvent.Type.RENAMED, spec.getUsername(),
+            spec.getCredentialId(), credential.getMetadata().getName(), spec.getDisplayName(),
+            previousName, client, Instant.now()));
+    }
+
+    public void deleted(PasskeyCredential credential, ClientInfo client) {
+        deleted(credential, client, null);
+    }
+
+    /**
+     * Record a deletion, with the reason when it was not requested by the user.
+     */
+    public void deleted(PasskeyCredential credential, ClientInfo client, String reason) {
+        var spec = credential.getSpec();
+        offer(new PendingEvent(PasskeyAuditEvent.Type.DELETED, spec.getUsername(),
+            spec.getCredentialId(), credential.getMetadata().getName(), spec.getDisplayName(),
+            reason, client, Instant.now()));
+    }
+
+    /**
+     * List the sign-in attempts of a user, newest first.
+     */
+    public Mono<ListResult<PasskeyAuditEvent>> listRecentSignIns(String username, int page,
+        int size) {
+        var listOptions = ListOptions.builder()
+            .fieldQuery(Queries.and(
+                Queries.equal("spec.username", username),
+                Queries.in("spec.type",
+                    PasskeyAuditEvent.Type.SIGN_IN_SUCCEEDED.name(),
+                    PasskeyAuditEvent.Type.SIGN_IN_FAILED.name())
+            ))
+            .build();
+        var pageRequest = PageRequestImpl.of(page, size,
+            Sort.by(Sort.Order.desc("spec.occurredAt")));
+        return extensionClient.listBy(PasskeyAuditEvent.class, listOptions, pageRequest);
+    }
+
+    /**
+     * Client information of the request. The forwarding headers are only believed when the
+     * request comes from one of the trusted proxies of the audit settings.
+     */
+    public ClientInfo clientInfo(ServerHttpRequest request) {
+        var configured = settings.audit().trustedProxies();
+        var proxies = trustedProxies;
+        if (!Objects.equals(proxies.configured(), configured)) {
+            proxies = TrustedProxies.parse(configured);
+            trustedProxies = proxies;
+        }
+        return ClientInfo.from(request, proxies::contains);
+    }
+
+    public Stats stats() {
+        return new Stats(buffer.size(), dropped.sum(), persisted.sum(), failed.sum(), swept.sum(),
+            unknownFailures.sum(), suppressedFailures.sum());
+    }
+
+    private void offer(PendingEvent event) {
+        if (!buffer.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Drain the buffer in batches. Only one batch is in flight at any time, the next one is
+     * started as soon as the previous one has been written.
+     */
+    void flush() {
+        if (!writing.compareAndSet(false, true)) {
+            return;
+        }
+        List<PendingEvent> batch = new ArrayList<>(BATCH_SIZE);
+        if (buffer.drainTo(batch, BATCH_SIZE) == 0) {
+            writing.set(false);
+            return;
+        }
+        persist(batch)
+            .doFinally(signal -> {
+                writing.set(false);
+                if (!buffer.isEmpty()) {
+                    scheduler.schedule(this::flush);
+                }
+            })
+            .subscribe();
+    }
+
+    private Mono<Void> persist(List<PendingEvent> batch) {
+        return Flux.fromIterable(batch)
+            .flatMap(event -> extensionClient.create(toExtension(event))
+                .doOnNext(created -> persisted.increment())
+                .onErrorResume(e -> {
+                    failed.increment();
+                    log.warn("Failed to persist passkey audit event {}", event.type(), e);
+                    return Mono.empty();
+                }), WRITE_CONCURRENCY)
+            .then();
+    }
+
+    private PasskeyAuditEvent toExtension(PendingEvent event) {
+        var auditEvent = new PasskeyAuditEvent();
+        var metadata = new Metadata();
+        metadata.setGenerateName("passkey-audit-");
+        auditEvent.setMetadata(metadata);
+
+        var spec = new PasskeyAuditEvent.PasskeyAuditEventSpec();
+        spec.setType(event.type());
+        spec.setUsername(event.username());
+        spec.setCredentialId(event.credentialId());
+        spec.setCredentialName(event.credentialName());
+        spec.setDisplayName(event.displayName());
+        spec.setDetail(event.detail());
+        if (event.client() != null) {
+            spec.setIpAddress(event.client().ipAddress());
+            spec.setUserAgent(event.client().userAgent());
+        }
+        spec.setOccurredAt(event.occurredAt());
+        auditEvent.setSpec(spec);
+        return auditEvent;
+    }
+
+    /**
+     * Delete audit events older than the configured retention, one page at a time.
+     */
+    void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        var cutoff = Instant.now()
+            .minus(Duration.ofDays(settings.audit().retentionDaysOrDefault()));
+        var listOptions = ListOptions.builder()
+            .fieldQuery(Queries.lessThan("spec.occurredAt", cutoff))
+            .andQuery(ExtensionUtil.notDeleting())
+            .build();
+        var pageRequest = PageRequestImpl.of(1, SWEEP_PAGE_SIZE,
+            Sort.by(Sort.Order.asc("spec.occurredAt")));
+        // Deleted events drop out of the query, so the first page is always the next one.
+        var nextPage = Mono.defer(
+            () -> extensionClient.listBy(PasskeyAuditEvent.class, listOptions, pageRequest));
+        nextPage
+            .expand(page -> page.getItems().size() < SWEEP_PAGE_SIZE ? Mono.empty() : nextPage)
+            .concatMap(page -> Flux.fromIterable(page.getItems())
+                .flatMap(extensionClient::delete, WRITE_CONCURRENCY)
+                .doOnNext(deleted -> swept.increment())
+                .then())
+            .doFinally(signal -> sweeping.set(false))
+            .subscribe(null, e -> log.warn("Failed to sweep passkey audit events", e));
+    }
+
+    record PendingEvent(
+        PasskeyAuditEvent.Type type,
+        String username,
+        String credentialId,
+        String credentialName,
+        String displayName,
+        String detail,
+        ClientInfo client,
+        Instant occurredAt
+    ) {}
+
+    /**
+     * Client information attached to an audit event.
+     */
+    public record ClientInfo(String ipAddress, String userAgent) {
+
+        /**
+         * @param trustedProxy whether an address is a proxy whose forwarding headers are
+         * believed
+         */
+        static ClientInfo from(ServerHttpRequest request, Predicate<String> trustedProxy) {
+            return new ClientInfo(resolveIpAddress(request, trustedProxy),
+                request.getHeaders().getFirst(HttpHeaders.USER_AGENT));
+        }
+
+        private static String resolveIpAddress(ServerHttpRequest request,
+            Predicate<String> trustedProxy) {
+            var remoteAddress = request.getRemoteAddress();
+            String address = remoteAddress != null && remoteAddress.getAddress() != null
+                ? remoteAddress.getAddress().getHostAddress() : null;
+            if (address == null || !trustedProxy.test(address)) {
+                return address;
+            }
+            var headers = request.getHeaders();
+            var forwardedFor = headers.getFirst("X-Forwarded-For");
+            if (StringUtils.hasText(forwardedFor)) {
+                // Each proxy appends the address it saw, only the part added by trusted
+                // proxies can be believed
+                var hops = forwardedFor.split(",");
+                for (int i = hops.length - 1; i >= 0; i--) {
+                    address = hops[i].trim();
+                    if (!trustedProxy.test(address)) {
+                        break;
+                    }
+                }
+                return address;
+            }
+            var realIp = headers.getFirst("X-Real-IP");
+            return StringUtils.hasText(realIp) ? realIp.trim() : address;
+        }
+    }
+
+    /**
+     * The parsed trusted proxies setting. Only IP literals are accepted, nothing is resolved as
+     * a host name.
+     *
+     * @param configured the setting they were parsed from
+     */
+    private record TrustedProxies(String configured, List<Network> networks) {
+
+        static final TrustedProxies NONE = new TrustedProxies(null, List.of());
+
+        static TrustedProxies parse(String configured) {
+            List<Network> networks = new ArrayList<>();
+            if (configured != null) {
+                for (String entry : configured.split("[,\\s]+")) {
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+                    var network = Network.parse(entry);
+                    if (network != null) {
+                        networks.add(network);
+                    } else {
+                        log.warn("Ignoring invalid trusted proxy address {}", entry);
+                    }
+                }
+            }
+            return new TrustedProxies(configured, List.copyOf(networks));
+        }
+
+        boolean contains(String address) {
+            if (networks.isEmpty()) {
+                return false;
+            }
+            byte[] bytes = NetUtil.createByteArrayFromIpAddressString(address);
+            return bytes != null && networks.stream().anyMatch(network -> network.contains(bytes));
+        }
+    }
+
+    /**
+     * An address or CIDR range.
+     */
+    private record Network(byte[] address, int prefixLength) {
+
+        static Network parse(String entry) {
+            int slash = entry.indexOf('/');
+            byte[] address = NetUtil.createByteArrayFromIpAddressString(
+                slash < 0 ? entry : entry.substring(0, slash));
+            if (address == null) {
+                return null;
+            }
+            int bits = address.length * Byte.SIZE;
+            if (slash < 0) {
+                return new Network(address, bits);
+            }
+            try {
+                int prefixLength = Integer.parseInt(entry.substring(slash + 1));
+                return prefixLength >= 0 && prefixLength <= bits
+                    ? new Network(address, prefixLength) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        boolean contains(byte[] other) {
+            if (other.length != address.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / Byte.SIZE;
+            for (int i = 0; i < fullBytes; i++) {
+                if (other[i] != address[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % Byte.SIZE;
+            if (remainingBits == 0) {
+                return true;
+            }
+            int mask = 0xff << (Byte.SIZE - remainingBits);
+            return (other[fullBytes] & mask) == (address[fullBytes] & mask);
+        }
+    }
+
+    /**
+     * @param unknownFailures failed sign-ins with an unknown credential, counted only
+     * @param suppressedFailures failed sign-ins not persisted for exceeding the limit per
+     * credential
+     */
+    public record Stats(int buffered, long dropped, long persisted, long failed, long swept,
+                        long unknownFailures, long suppressedFailures) {}
+}
@@ -0,0 +1,91 @@
+package top.ilay.authpasskey;
+
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.endpoint.CustomEndpoint;
+import run.halo.app.extension.GroupVersion;
+
+/**
+ * Console API endpoints for administrators.
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+@RequiredArgsConstructor
+public class PasskeyConsoleEndpoint implements CustomEndpoint {
+
+    private final PasskeyAuditService auditService;
+    private final AttestationPolicy attestationPolicy;
+    private final CredentialIdFilter credentialIdFilter;
+    private final PasskeyRequestDecoder requestDecoder;
+    private final CredentialDescriptorCache descriptorCache;
+    private final PasskeyCredentialReconciler credentialReconciler;
+    private final PasskeyCredentialTransfer credentialTransfer;
+    private final PasskeyUserDetailsCache userDetailsCache;
+    private final AssertionCoalescer assertionCoalescer;
+    private final PasskeyCredentialService credentialService;
+
+    @Override
+    public RouterFunction<ServerResponse> endpoint() {
+        return RouterFunctions.route()
+            .GET("/stats", this::getStats)
+            .GET("/credentials/export", this::exportCredentials)
+            .POST("/credentials/import", this::importCredentials)
+            .build();
+    }
+
+    @Override
+    public GroupVersion groupVersion() {
+        return new GroupVersion("console.api.passkey.halo.run", "v1alpha1");
+    }
+
+    private Mono<ServerResponse> getStats(ServerRequest request) {
+        return ServerResponse.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new StatsResponse(auditService.stats(), attestationPolicy.stats(),
+                credentialIdFilter.stats(), requestDecoder.stats(), descriptorCache.stats(),
+                credentialReconciler.stats(), userDetailsCache.stats(),
+                assertionCoalescer.stats(), credentialService.stats()));
+    }
+
+    private Mono<ServerResponse> exportCredentials(ServerRequest request) {
+        return ServerResponse.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("passkey-credentials.ndjson")
+                .build()
+                .toString())
+            .body(BodyInserters.fromDataBuffers(credentialTransfer.export()));
+    }
+
+    private Mono<ServerResponse> importCredentials(ServerRequest request) {
+        return ServerResponse.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .body(credentialTransfer.importFrom(request.body(BodyExtractors.toDataBuffers())),
+                PasskeyCredentialTransfer.ImportResult.class);
+    }
+
+    record StatsResponse(
+        PasskeyAuditService.Stats audit,
+        AttestationPolicy.Stats attestation,
+        CredentialIdFilter.Stats credentialIdFilter,
+        Map<PasskeyRequestDecoder.Reason, Long> requestRejections,
+        CredentialDescriptorCache.Stats credentialDescriptors,
+        PasskeyCredentialReconciler.Stats credentialReconciler,
+        PasskeyUserDetailsCache.Stats userDetails,
+        AssertionCoalescer.Stats assertionCoalescer,
+        PasskeyCredentialService.Stats credentialStore
+    ) {}
+}
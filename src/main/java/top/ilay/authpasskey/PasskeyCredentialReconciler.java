@@ -0,0 +1,274 @@
+package top.ilay.authpasskey;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import run.halo.app.core.extension.User;
+import run.halo.app.extension.ExtensionUtil;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.event.PluginStartedEvent;
+
+/**
+ * Background reconciler of {@link PasskeyCredential}s that are no longer useful.
+ *
+ * <p>Once a day it walks all credentials in pages ordered by {@code metadata.name}, each page
+ * starting after the last name of the previous one, so deletions never shift the walk. A
+ * credential whose user no longer exists is flagged with {@link #ORPHANED_ANNOTATION} or deleted,
+ * and a credential not used for the configured number of days is deleted.</p>
+ *
+ * <p>The walk is throttled so it never competes with sign-ins: pages are processed one at a
+ * time, writes within a page are sequential and the next page waits {@link #PAGE_INTERVAL}.
+ * Deletions go through the extension client, so watchers evict the credential from the in-memory
+ * filters and caches.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+@Service
+public class PasskeyCredentialReconciler implements DisposableBean {
+
+    static final Duration INITIAL_DELAY = Duration.ofMinutes(10);
+    static final Duration RUN_INTERVAL = Duration.ofDays(1);
+    static final int PAGE_SIZE = 50;
+    static final Duration PAGE_INTERVAL = Duration.ofMillis(500);
+    static final int USER_LOOKUP_CONCURRENCY = 4;
+
+    /**
+     * Set on credentials whose user no longer exists, holds when it was first noticed.
+     */
+    public static final String ORPHANED_ANNOTATION = "passkey.halo.run/orphaned-at";
+
+    private final ReactiveExtensionClient extensionClient;
+    private final PasskeyCredentialService credentialService;
+    private final PasskeySettings settings;
+    private final PasskeyAuditService auditService;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final LongAdder examined = new LongAdder();
+    private final LongAdder flagged = new LongAdder();
+    private final LongAdder orphansRemoved = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile Run lastRun;
+
+    private final Scheduler scheduler =
+        Schedulers.newSingle("passkey-credential-reconciler", true);
+    private volatile Disposable task;
+
+    public PasskeyCredentialReconciler(ReactiveExtensionClient extensionClient,
+        PasskeyCredentialService credentialService, PasskeySettings settings,
+        PasskeyAuditService auditService) {
+        this.extensionClient = extensionClient;
+        this.credentialService = credentialService;
+        this.settings = settings;
+        this.auditService = auditService;
+    }
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        task = scheduler.schedulePeriodically(this::reconcile,
+            INITIAL_DELAY.toMinutes(), RUN_INTERVAL.toMinutes(), TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        if (task != null) {
+            task.dispose();
+        }
+        scheduler.dispose();
+    }
+
+    public Stats stats() {
+        return new Stats(running.get(), examined.sum(), flagged.sum(), orphansRemoved.sum(),
+            expired.sum(), failed.sum(), lastRun);
+    }
+
+    /**
+     * Start a run unless one is already in progress.
+     */
+    void reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        run()
+            .doFinally(signal -> running.set(false))
+            .subscribe(run -> log.info("Reconciled {} passkey credentials: {} flagged as "
+                    + "orphaned, {} orphaned and {} idle removed, {} failed",
+                    run.examined(), run.flagged(), run.orphansRemoved(), run.expired(),
+                    run.failed()),
+                e -> log.warn("Failed to reconcile passkey credentials", e));
+    }
+
+    Mono<Run> run() {
+        var maintenance = settings.maintenance();
+        int idleDays = maintenance.idleDaysOrDisabled();
+        var now = Instant.now();
+        var tally = new Tally(now, maintenance.deleteOrphans(),
+            idleDays > 0 ? now.minus(Duration.ofDays(idleDays)) : null);
+        return nextPage(null, tally)
+            .expand(lastName -> Mono.delay(PAGE_INTERVAL, scheduler)
+                .then(nextPage(lastName, tally)))
+            .then(Mono.fromSupplier(() -> {
+                var run = tally.finish();
+                lastRun = run;
+                return run;
+            }));
+    }
+
+    /**
+     * Reconcile the page after the given name, emits the last name of the page when there may
+     * be more.
+     */
+    private Mono<String> nextPage(String after, Tally tally) {
+        return credentialService.listAfter(after, PAGE_SIZE)
+            .filter(page -> !page.isEmpty())
+            .flatMap(page -> {
+                var lastName = page.get(page.size() - 1).getMetadata().getName();
+                return reconcilePage(page, tally)
+                    .then(Mono.justOrEmpty(page.size() < PAGE_SIZE ? null : lastName));
+            });
+    }
+
+    private Mono<Void> reconcilePage(List<PasskeyCredential> credentials, Tally tally) {
+        var usernames = credentials.stream()
+            .map(credential -> credential.getSpec().getUsername())
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+        return Flux.fromIterable(usernames)
+            .flatMap(username -> extensionClient.fetch(User.class, username)
+                .filter(user -> !ExtensionUtil.isDeleted(user))
+                .map(user -> username), USER_LOOKUP_CONCURRENCY)
+            .collect(Collectors.toSet())
+            .flatMapMany(existing -> Flux.fromIterable(credentials)
+                .concatMap(credential -> reconcile(credential, existing, tally)))
+            .then();
+    }
+
+    private Mono<Void> reconcile(PasskeyCredential credential, Set<String> existingUsers,
+        Tally tally) {
+        tally.examined++;
+        examined.increment();
+        var spec = credential.getSpec();
+        var lastActive = spec.getLastUsedAt() != null ? spec.getLastUsedAt() : spec.getCreatedAt();
+        Mono<Void> action;
+        if (tally.idleCutoff != null && lastActive != null
+            && lastActive.isBefore(tally.idleCutoff)) {
+            action = delete(credential, "超过 " + settings.maintenance().idleDaysOrDisabled()
+                + " 天未使用，自动清理").doOnSuccess(v -> {
+                    tally.expired++;
+                    expired.increment();
+                });
+        } else if (!existingUsers.contains(spec.getUsername()) && tally.deleteOrphans) {
+            action = delete(credential, "所属用户不存在，自动清理").doOnSuccess(v -> {
+                tally.orphansRemoved++;
+                orphansRemoved.increment();
+            });
+        } else if (!existingUsers.contains(spec.getUsername())) {
+            action = flag(credential, tally);
+        } else {
+            action = unflag(credential, tally);
+        }
+        return action.onErrorResume(e -> {
+            tally.failed++;
+            failed.increment();
+            // Most likely a concurrent sign-in, the next run will try again.
+            log.debug("Failed to reconcile passkey credential {}",
+                credential.getMetadata().getName(), e);
+            return Mono.empty();
+        });
+    }
+
+    private Mono<Void> delete(PasskeyCredential credential, String reason) {
+        return extensionClient.delete(credential)
+            .doOnNext(deleted -> auditService.deleted(deleted, null, reason))
+            .then();
+    }
+
+    private Mono<Void> flag(PasskeyCredential credential, Tally tally) {
+        var annotations = credential.getMetadata().getAnnotations();
+        if (annotations != null && annotations.containsKey(ORPHANED_ANNOTATION)) {
+            return Mono.empty();
+        }
+        annotations = annotations == null ? new HashMap<>() : new HashMap<>(annotations);
+        annotations.put(ORPHANED_ANNOTATION, tally.startedAt.toString());
+        credential.getMetadata().setAnnotations(annotations);
+        return extensionClient.update(credential)
+            .doOnNext(updated -> {
+                tally.flagged++;
+                flagged.increment();
+            })
+            .then();
+    }
+
+    /**
+     * Clear the flag of a credential whose user has been recreated.
+     */
+    private Mono<Void> unflag(PasskeyCredential credential, Tally tally) {
+        var annotations = credential.getMetadata().getAnnotations();
+        if (annotations == null || !annotations.containsKey(ORPHANED_ANNOTATION)) {
+            return Mono.empty();
+        }
+        annotations = new HashMap<>(annotations);
+        annotations.remove(ORPHANED_ANNOTATION);
+        credential.getMetadata().setAnnotations(annotations);
+        return extensionClient.update(credential)
+            .doOnNext(updated -> tally.unflagged++)
+            .then();
+    }
+
+    /**
+     * Counters of one run. Pages and the credentials within a page are processed one after
+     * another, so plain fields are enough.
+     */
+    private static final class Tally {
+        final Instant startedAt;
+        final boolean deleteOrphans;
+        final Instant idleCutoff;
+        long examined;
+        long flagged;
+        long unflagged;
+        long orphansRemoved;
+        long expired;
+        long failed;
+
+        Tally(Instant startedAt, boolean deleteOrphans, Instant idleCutoff) {
+            this.startedAt = startedAt;
+            this.deleteOrphans = deleteOrphans;
+            this.idleCutoff = idleCutoff;
+        }
+
+        Run finish() {
+            return new Run(startedAt, Instant.now(), examined, flagged, unflagged,
+                orphansRemoved, expired, failed);
+        }
+    }
+
+    /**
+     * Outcome of a single run.
+     */
+    public record Run(Instant startedAt, Instant finishedAt, long examined, long flagged,
+                      long unflagged, long orphansRemoved, long expired, long failed) {}
+
+    /**
+     * Totals since the plugin started, plus the outcome of the last completed run.
+     */
+    public record Stats(boolean running, long examined, long flagged, long orphansRemoved,
+                        long expired, long failed, Run lastRun) {}
+}
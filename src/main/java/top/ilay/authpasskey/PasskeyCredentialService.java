@@ -1,30 +1,98 @@
 package top.ilay.authpasskey;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.ExtensionUtil;
 import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.ListResult;
 import run.halo.app.extension.Metadata;
+import run.halo.app.extension.PageRequestImpl;
 import run.halo.app.extension.ReactiveExtensionClient;
 import run.halo.app.extension.index.query.Queries;
+import run.halo.app.plugin.event.PluginStartedEvent;
 
 /**
  * Service for managing Passkey credentials.
  *
+ * <p>The lookups and writes on the sign-in path run under the timeouts of the resilience
+ * settings and behind a circuit breaker, so a slow store fails them fast instead of letting
+ * requests pile up. While the store is unavailable, lookups are served from the last
+ * credentials seen, kept up to date by watching credential changes, and signature counter
+ * writes are deferred until the breaker has closed again. Console and background calls do not
+ * go through the breaker, so their load cannot open it for sign-ins.</p>
+ *
  * @author ilay
  * @since 1.0.0
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class PasskeyCredentialService {
+public class PasskeyCredentialService implements DisposableBean {
+
+    static final int UPDATE_RETRIES = 8;
+    static final Duration UPDATE_RETRY_BACKOFF = Duration.ofMillis(10);
+    static final int MAXIMUM_SNAPSHOTS = 10_000;
+    static final String UNAVAILABLE = "凭证存储暂不可用，请稍后重试";
+
+    private static final String BREAKER_NAME = "passkey-sign-in";
 
     private final ReactiveExtensionClient extensionClient;
+    private final PasskeySettings settings;
+
+    private final Cache<String, PasskeyCredential> snapshotsByCredentialId = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SNAPSHOTS)
+        .build();
+    private final Cache<String, List<PasskeyCredential>> snapshotsByUsername = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SNAPSHOTS)
+        .build();
+    private final Map<String, DeferredWrite> deferredWrites = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final LongAdder fallbackLookups = new LongAdder();
+    private final LongAdder unavailableLookups = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final InvalidatingWatcher watcher =
+        new InvalidatingWatcher(this::onAdd, this::onUpdate, this::onDelete);
+    private volatile Breaker breaker;
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        watcher.watch(extensionClient);
+    }
+
+    @Override
+    public void destroy() {
+        watcher.dispose();
+    }
 
     /**
      * Find all credentials for a user.
@@ -37,9 +105,44 @@ public class PasskeyCredentialService {
     }
 
     /**
-     * Find a credential by its credential ID.
+     * Find all credentials for a user to offer for a ceremony, from the last snapshot while
+     * the store is unavailable.
+     */
+    public Flux<PasskeyCredential> findByUsernameForSignIn(String username) {
+        return guarded(findByUsername(username).collectList(),
+                settings.resilience().lookupTimeoutOrDefault())
+            .doOnNext(credentials -> snapshotsByUsername.put(username, credentials))
+            .onErrorResume(e -> fallback(snapshotsByUsername.getIfPresent(username), e))
+            .flatMapIterable(Function.identity());
+    }
+
+    /**
+     * Find those of the named credentials that belong to the given user, with a single indexed
+     * query. Names of other users' credentials or of missing ones are left out.
+     */
+    public Flux<PasskeyCredential> findByNames(String username, Collection<String> names) {
+        var listOptions = ListOptions.builder()
+            .fieldQuery(Queries.and(Queries.equal("spec.username", username),
+                Queries.in("metadata.name", List.<Object>copyOf(names))))
+            .andQuery(ExtensionUtil.notDeleting())
+            .build();
+        return extensionClient.listAll(PasskeyCredential.class, listOptions, null);
+    }
+
+    /**
+     * Find a credential by its credential ID, from the last snapshot while the store is
+     * unavailable.
      */
     public Mono<PasskeyCredential> findByCredentialId(String credentialId) {
+        return guarded(fetchByCredentialId(credentialId),
+                settings.resilience().lookupTimeoutOrDefault())
+            .doOnNext(credential -> snapshotsByCredentialId.put(credentialId, credential))
+            .switchIfEmpty(Mono.fromRunnable(
+                () -> snapshotsByCredentialId.invalidate(credentialId)))
+            .onErrorResume(e -> fallback(snapshotsByCredentialId.getIfPresent(credentialId), e));
+    }
+
+    private Mono<PasskeyCredential> fetchByCredentialId(String credentialId) {
         var listOptions = ListOptions.builder()
             .fieldQuery(Queries.equal("spec.credentialId", credentialId))
             .build();
@@ -47,6 +150,22 @@ public class PasskeyCredentialService {
             .next();
     }
 
+    /**
+     * List up to {@code size} credentials ordered by name, starting after the given name, or
+     * from the first one when it is null. Paging by name instead of by page number keeps a walk
+     * over all credentials stable while some of them are created or deleted.
+     */
+    public Mono<List<PasskeyCredential>> listAfter(String name, int size) {
+        var builder = ListOptions.builder();
+        if (name != null) {
+            builder.fieldQuery(Queries.greaterThan("metadata.name", name));
+        }
+        var listOptions = builder.andQuery(ExtensionUtil.notDeleting()).build();
+        var pageRequest = PageRequestImpl.of(1, size, Sort.by(Sort.Order.asc("metadata.name")));
+        return extensionClient.listBy(PasskeyCredential.class, listOptions, pageRequest)
+            .map(ListResult::getItems);
+    }
+
     /**
      * Find a credential by its metadata name.
      */
@@ -77,17 +196,185 @@ public class PasskeyCredentialService {
     }
 
     /**
-     * Update the signature count and last used timestamp for a credential.
+     * Delete an already loaded credential, failing if it has changed since.
+     */
+    public Mono<PasskeyCredential> delete(PasskeyCredential credential) {
+        return extensionClient.delete(credential);
+    }
+
+    /**
+     * Update the signature count and last used timestamp of an already loaded credential.
+     *
+     * <p>Concurrent sign-ins with the same credential may finish in any order, so the stored
+     * count only ever moves forward, and a conflicting write is retried on a fresh copy. While
+     * the store is unavailable the write is deferred and the credential is emitted with the new
+     * values, so the sign-in can go ahead.</p>
      */
-    public Mono<PasskeyCredential> updateSignatureCount(String credentialId, long newCount) {
-        return findByCredentialId(credentialId)
-            .flatMap(credential -> {
-                credential.getSpec().setSignatureCount(newCount);
-                credential.getSpec().setLastUsedAt(Instant.now());
-                return extensionClient.update(credential);
+    public Mono<PasskeyCredential> updateSignatureCount(PasskeyCredential credential,
+        long newCount) {
+        var credentialId = credential.getSpec().getCredentialId();
+        var usedAt = Instant.now();
+        return guarded(applySignatureCount(credential, newCount, usedAt)
+                    .onErrorResume(OptimisticLockingFailureException.class,
+                        e -> writeSignatureCount(credentialId, newCount, usedAt)),
+                settings.resilience().writeTimeoutOrDefault())
+            .onErrorResume(PasskeyCredentialService::storeUnavailable, e -> {
+                defer(credentialId, new DeferredWrite(newCount, usedAt), e);
+                var spec = credential.getSpec();
+                spec.setSignatureCount(Math.max(spec.getSignatureCount(), newCount));
+                spec.setLastUsedAt(usedAt);
+                snapshotsByCredentialId.put(credentialId, credential);
+                return Mono.just(credential);
             });
     }
 
+    private Mono<PasskeyCredential> writeSignatureCount(String credentialId, long newCount,
+        Instant usedAt) {
+        return Mono.defer(() -> fetchByCredentialId(credentialId))
+            .flatMap(credential -> applySignatureCount(credential, newCount, usedAt))
+            .retryWhen(Retry.backoff(UPDATE_RETRIES, UPDATE_RETRY_BACKOFF)
+                .filter(OptimisticLockingFailureException.class::isInstance));
+    }
+
+    private Mono<PasskeyCredential> applySignatureCount(PasskeyCredential credential,
+        long newCount, Instant usedAt) {
+        var spec = credential.getSpec();
+        spec.setSignatureCount(Math.max(spec.getSignatureCount(), newCount));
+        if (spec.getLastUsedAt() == null || spec.getLastUsedAt().isBefore(usedAt)) {
+            spec.setLastUsedAt(usedAt);
+        }
+        return extensionClient.update(credential);
+    }
+
+    private void defer(String credentialId, DeferredWrite write, Throwable cause) {
+        deferred.increment();
+        deferredWrites.merge(credentialId, write, DeferredWrite::merge);
+        log.warn("Deferred the signature count of passkey credential {}: {}", credentialId,
+            cause.toString());
+    }
+
+    /**
+     * Write the deferred signature counts once the breaker is closed, those that fail again
+     * stay deferred.
+     */
+    private void flushDeferredWrites() {
+        if (deferredWrites.isEmpty() || breaker().getState() != CircuitBreaker.State.CLOSED
+            || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+        Flux.fromIterable(List.copyOf(deferredWrites.keySet()))
+            .concatMap(credentialId -> {
+                var write = deferredWrites.remove(credentialId);
+                if (write == null) {
+                    return Mono.empty();
+                }
+                return guarded(writeSignatureCount(credentialId, write.signatureCount(),
+                        write.lastUsedAt()), settings.resilience().writeTimeoutOrDefault())
+                    .doOnNext(credential -> flushed.increment())
+                    .onErrorResume(e -> {
+                        deferredWrites.merge(credentialId, write, DeferredWrite::merge);
+                        return Mono.empty();
+                    });
+            })
+            .doFinally(signal -> flushing.set(false))
+            .subscribe();
+    }
+
+    public Stats stats() {
+        var circuitBreaker = breaker();
+        var metrics = circuitBreaker.getMetrics();
+        return new Stats(circuitBreaker.getState().name(), metrics.getFailureRate(),
+            metrics.getNumberOfNotPermittedCalls(), snapshotsByCredentialId.estimatedSize(),
+            fallbackLookups.sum(), unavailableLookups.sum(), deferred.sum(),
+            deferredWrites.size(), flushed.sum());
+    }
+
+    private void onAdd(Extension extension) {
+        if (extension instanceof PasskeyCredential credential) {
+            snapshotsByUsername.invalidate(credential.getSpec().getUsername());
+        }
+    }
+
+    private void onUpdate(Extension oldExtension, Extension newExtension) {
+        if (oldExtension instanceof PasskeyCredential oldCredential
+            && newExtension instanceof PasskeyCredential newCredential) {
+            var credentialId = newCredential.getSpec().getCredentialId();
+            if (ExtensionUtil.isDeleted(newCredential)) {
+                snapshotsByCredentialId.invalidate(credentialId);
+            } else {
+                // Only refresh, a lookup decides what is kept
+                snapshotsByCredentialId.asMap()
+                    .computeIfPresent(credentialId, (key, snapshot) -> newCredential);
+            }
+            snapshotsByUsername.invalidate(oldCredential.getSpec().getUsername());
+            snapshotsByUsername.invalidate(newCredential.getSpec().getUsername());
+        }
+    }
+
+    private void onDelete(Extension extension) {
+        if (extension instanceof PasskeyCredential credential) {
+            // A deleted credential must not sign anyone in from a snapshot
+            snapshotsByCredentialId.invalidate(credential.getSpec().getCredentialId());
+            snapshotsByUsername.invalidate(credential.getSpec().getUsername());
+        }
+    }
+
+    /**
+     * Run a store call of the sign-in path under the timeout and the circuit breaker.
+     */
+    private <T> Mono<T> guarded(Mono<T> call, Duration timeout) {
+        return call.timeout(timeout)
+            .transformDeferred(CircuitBreakerOperator.of(breaker()))
+            .doOnSuccess(value -> flushDeferredWrites());
+    }
+
+    private <T> Mono<T> fallback(T snapshot, Throwable cause) {
+        if (snapshot != null) {
+            fallbackLookups.increment();
+            log.warn("Serving passkey credentials from snapshot: {}", cause.toString());
+            return Mono.just(snapshot);
+        }
+        unavailableLookups.increment();
+        return Mono.error(storeUnavailable(cause)
+            ? new IllegalStateException(UNAVAILABLE, cause) : cause);
+    }
+
+    private static boolean storeUnavailable(Throwable e) {
+        return e instanceof TimeoutException
+            || e instanceof CallNotPermittedException
+            || e instanceof TransientDataAccessException
+            || e instanceof DataAccessResourceFailureException;
+    }
+
+    /**
+     * The circuit breaker for the current resilience settings, replaced when they change.
+     */
+    private CircuitBreaker breaker() {
+        var resilience = settings.resilience();
+        var current = breaker;
+        if (current != null && current.settings().equals(resilience)) {
+            return current.circuitBreaker();
+        }
+        synchronized (this) {
+            current = breaker;
+            if (current == null || !current.settings().equals(resilience)) {
+                current = new Breaker(resilience, CircuitBreaker.of(BREAKER_NAME,
+                    CircuitBreakerConfig.custom()
+                        .slidingWindowSize(20)
+                        .minimumNumberOfCalls(10)
+                        .failureRateThreshold(resilience.failureRateThresholdOrDefault())
+                        .waitDurationInOpenState(resilience.openDurationOrDefault())
+                        .permittedNumberOfCallsInHalfOpenState(3)
+                        // Write conflicts say nothing about the health of the store
+                        .recordException(e -> !(e instanceof OptimisticLockingFailureException)
+                            && !Exceptions.isRetryExhausted(e))
+                        .build()));
+                breaker = current;
+            }
+            return current.circuitBreaker();
+        }
+    }
+
     /**
      * Create a new PasskeyCredential entity.
      */
@@ -130,4 +417,33 @@ public class PasskeyCredentialService {
         credential.setSpec(spec);
         return credential;
     }
+
+    private record Breaker(PasskeySettings.Resilience settings, CircuitBreaker circuitBreaker) {}
+
+    /**
+     * A signature counter write waiting for the store.
+     */
+    private record DeferredWrite(long signatureCount, Instant lastUsedAt) {
+
+        DeferredWrite merge(DeferredWrite other) {
+            return new DeferredWrite(Math.max(signatureCount, other.signatureCount),
+                lastUsedAt.isAfter(other.lastUsedAt) ? lastUsedAt : other.lastUsedAt);
+        }
+    }
+
+    /**
+     * @param state state of the circuit breaker, {@code CLOSED}, {@code OPEN} or
+     * {@code HALF_OPEN}
+     * @param failureRate percentage of recent store calls that failed, -1 until enough calls
+     * @param notPermittedCalls store calls rejected by the open breaker
+     * @param snapshots credentials a lookup can fall back to
+     * @param fallbackLookups lookups served from a snapshot
+     * @param unavailableLookups lookups that failed without a snapshot
+     * @param deferredWrites signature counter writes deferred
+     * @param pendingWrites deferred writes not yet flushed
+     * @param flushedWrites deferred writes flushed once the store was back
+     */
+    public record Stats(String state, float failureRate, long notPermittedCalls, long snapshots,
+                        long fallbackLookups, long unavailableLookups, long deferredWrites,
+                        int pendingWrites, long flushedWrites) {}
 }
@@ -0,0 +1,255 @@
+package top.ilay.authpasskey;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.Metadata;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.index.query.Queries;
+
+/**
+ * Moves passkey credentials between Halo instances as NDJSON, one credential spec per line.
+ *
+ * <p>Export pages through the credentials by name and only fetches the next page when the
+ * previous one has been written out. Import decodes the upload line by line, looks up the
+ * credential IDs of each batch with a single indexed query and creates the new ones with
+ * bounded concurrency. Neither side holds more than a page or a batch in memory, however many
+ * credentials are moved.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+@Service
+public class PasskeyCredentialTransfer {
+
+    static final int EXPORT_PAGE_SIZE = 200;
+    static final int IMPORT_BATCH_SIZE = 100;
+    static final int IMPORT_CONCURRENCY = 8;
+    static final int MAX_LINE_BYTES = 16 * 1024;
+    static final int MAX_PUBLIC_KEY_BYTES = 2048;
+
+    private static final ResolvableType LINE_TYPE = ResolvableType.forClass(String.class);
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final ReactiveExtensionClient extensionClient;
+    private final PasskeyCredentialService credentialService;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder(JsonFactory.builder()
+            .streamReadConstraints(StreamReadConstraints.builder()
+                .maxNestingDepth(PasskeyRequestDecoder.MAX_NESTING_DEPTH)
+                .maxStringLength(MAX_LINE_BYTES)
+                .build())
+            .build())
+        .findAndAddModules()
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .build();
+    private final StringDecoder lineDecoder = StringDecoder.textPlainOnly(List.of("\n"), true);
+
+    public PasskeyCredentialTransfer(ReactiveExtensionClient extensionClient,
+        PasskeyCredentialService credentialService) {
+        this.extensionClient = extensionClient;
+        this.credentialService = credentialService;
+        lineDecoder.setMaxInMemorySize(MAX_LINE_BYTES);
+    }
+
+    /**
+     * Stream all credentials as NDJSON.
+     */
+    public Flux<DataBuffer> export() {
+        return credentialService.listAfter(null, EXPORT_PAGE_SIZE)
+            .expand(page -> page.size() < EXPORT_PAGE_SIZE ? Mono.empty()
+                : credentialService.listAfter(page.get(page.size() - 1).getMetadata().getName(),
+                    EXPORT_PAGE_SIZE))
+            .concatMapIterable(Function.identity(), 1)
+            .map(credential -> DefaultDataBufferFactory.sharedInstance.wrap(
+                toLine(credential.getSpec())));
+    }
+
+    /**
+     * Import credentials from an NDJSON upload. Emits one result per non-blank line, in order.
+     * Credentials whose ID already exists are skipped, so an interrupted import can simply be
+     * run again.
+     */
+    public Flux<ImportResult> importFrom(Flux<DataBuffer> body) {
+        return lineDecoder.decode(body, LINE_TYPE, null, null)
+            .index((index, line) -> new Line(index + 1, line.trim()))
+            .filter(line -> !line.text().isEmpty())
+            .map(this::parse)
+            .buffer(IMPORT_BATCH_SIZE)
+            .concatMap(this::importBatch)
+            .onErrorResume(DataBufferLimitException.class, e -> Mono.just(
+                new ImportResult(null, null, Outcome.FAILED,
+                    "单行超过 " + MAX_LINE_BYTES + " 字节，导入已中止")));
+    }
+
+    private byte[] toLine(PasskeyCredential.PasskeyCredentialSpec spec) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(spec);
+            byte[] line = new byte[json.length + NEWLINE.length];
+            System.arraycopy(json, 0, line, 0, json.length);
+            System.arraycopy(NEWLINE, 0, line, json.length, NEWLINE.length);
+            return line;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("导出凭证失败", e);
+        }
+    }
+
+    private Parsed parse(Line line) {
+        PasskeyCredential.PasskeyCredentialSpec spec;
+        try {
+            spec = objectMapper.readValue(line.text(),
+                PasskeyCredential.PasskeyCredentialSpec.class);
+        } catch (JsonProcessingException e) {
+            spec = null;
+        }
+        if (spec == null) {
+            return new Parsed(line.number(), null, "格式错误");
+        }
+        return new Parsed(line.number(), spec, validate(spec));
+    }
+
+    private Flux<ImportResult> importBatch(List<Parsed> batch) {
+        List<Object> credentialIds = batch.stream()
+            .filter(parsed -> parsed.error() == null)
+            .map(parsed -> (Object) parsed.spec().getCredentialId())
+            .toList();
+        if (credentialIds.isEmpty()) {
+            return Flux.fromIterable(batch).map(this::failed);
+        }
+        var listOptions = ListOptions.builder()
+            .fieldQuery(Queries.in("spec.credentialId", credentialIds))
+            .build();
+        return extensionClient.listAll(PasskeyCredential.class, listOptions, null)
+            .map(credential -> credential.getSpec().getCredentialId())
+            .collect(Collectors.toSet())
+            .flatMapMany(existing -> {
+                Set<String> seen = new HashSet<>(existing);
+                return Flux.fromIterable(batch)
+                    .flatMapSequential(parsed -> {
+                        if (parsed.error() != null) {
+                            return Mono.just(failed(parsed));
+                        }
+                        if (!seen.add(parsed.spec().getCredentialId())) {
+                            return Mono.just(skipped(parsed));
+                        }
+                        return create(parsed);
+                    }, IMPORT_CONCURRENCY);
+            });
+    }
+
+    private Mono<ImportResult> create(Parsed parsed) {
+        var credential = new PasskeyCredential();
+        var metadata = new Metadata();
+        metadata.setGenerateName("passkey-");
+        credential.setMetadata(metadata);
+        credential.setSpec(parsed.spec());
+        return credentialService.save(credential)
+            .map(created -> new ImportResult(parsed.line(), parsed.spec().getCredentialId(),
+                Outcome.CREATED, created.getMetadata().getName()))
+            // Created concurrently, the unique index on the credential ID catches it
+            .onErrorResume(DuplicateKeyException.class, e -> Mono.just(skipped(parsed)))
+            .onErrorResume(e -> {
+                log.warn("Failed to import passkey credential on line {}", parsed.line(), e);
+                return Mono.just(new ImportResult(parsed.line(),
+                    parsed.spec().getCredentialId(), Outcome.FAILED, e.getMessage()));
+            });
+    }
+
+    private ImportResult skipped(Parsed parsed) {
+        return new ImportResult(parsed.line(), parsed.spec().getCredentialId(), Outcome.SKIPPED,
+            "凭证已存在");
+    }
+
+    private ImportResult failed(Parsed parsed) {
+        return new ImportResult(parsed.line(),
+            parsed.spec() == null ? null : parsed.spec().getCredentialId(), Outcome.FAILED,
+            parsed.error());
+    }
+
+    /**
+     * Check the fields a usable credential needs, returns the first problem or null.
+     */
+    private static String validate(PasskeyCredential.PasskeyCredentialSpec spec) {
+        if (!StringUtils.hasText(spec.getUsername())) {
+            return "缺少必填字段: username";
+        }
+        if (spec.getUsername().length() > PasskeyRequestDecoder.MAX_NAME_LENGTH) {
+            return "字段长度超出限制: username";
+        }
+        var credentialIdError = validateBase64Url("credentialId", spec.getCredentialId(),
+            PasskeyRequestDecoder.MAX_CREDENTIAL_ID_BYTES);
+        if (credentialIdError != null) {
+            return credentialIdError;
+        }
+        var publicKeyError = validateBase64Url("publicKey", spec.getPublicKey(),
+            MAX_PUBLIC_KEY_BYTES);
+        if (publicKeyError != null) {
+            return publicKeyError;
+        }
+        if (spec.getSignatureCount() < 0) {
+            return "字段值无效: signatureCount";
+        }
+        if (spec.getCreatedAt() == null) {
+            return "缺少必填字段: createdAt";
+        }
+        return null;
+    }
+
+    private static String validateBase64Url(String field, String value, int maxBytes) {
+        if (!StringUtils.hasText(value)) {
+            return "缺少必填字段: " + field;
+        }
+        try {
+            if (Base64.getUrlDecoder().decode(value).length > maxBytes) {
+                return "字段长度超出限制: " + field;
+            }
+        } catch (IllegalArgumentException e) {
+            return "字段编码无效: " + field;
+        }
+        return null;
+    }
+
+    private record Line(long number, String text) {}
+
+    private record Parsed(long line, PasskeyCredential.PasskeyCredentialSpec spec,
+                          String error) {}
+
+    public enum Outcome {
+        CREATED,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * Result of importing one line.
+     *
+     * @param line the line number, null when the whole upload was rejected
+     * @param message the name of the created credential, or why it was skipped or failed
+     */
+    public record ImportResult(Long line, String credentialId, Outcome outcome,
+                               String message) {}
+}
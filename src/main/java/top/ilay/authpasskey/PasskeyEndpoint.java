@@ -1,24 +1,38 @@
 package top.ilay.authpasskey;
 
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextImpl;
-import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.server.context.ServerSecurityContextRepository;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import run.halo.app.core.extension.endpoint.CustomEndpoint;
 import run.halo.app.extension.GroupVersion;
+import run.halo.app.extension.ListResult;
 import run.halo.app.security.LoginHandlerEnhancer;
 
 /**
@@ -32,25 +46,45 @@ import run.halo.app.security.LoginHandlerEnhancer;
 @RequiredArgsConstructor
 public class PasskeyEndpoint implements CustomEndpoint {
 
+    static final int MAX_BATCH_SIZE = 100;
+    static final int BATCH_CONCURRENCY = 4;
+    static final int MAX_PAGE_SIZE = 100;
+    static final String OWNER_COOKIE = "PASSKEY_OWNER";
+    static final Duration OWNER_COOKIE_MAX_AGE = Duration.ofMinutes(2);
+    static final int OWNER_TOKEN_BYTES = 16;
+    static final int OWNER_TOKEN_MAX_LENGTH = 64;
+
     private final WebAuthnService webAuthnService;
     private final PasskeyCredentialService credentialService;
-    private final ReactiveUserDetailsService userDetailsService;
+    private final PasskeyUserDetailsCache userDetailsCache;
     private final ServerSecurityContextRepository securityContextRepository;
     private final LoginHandlerEnhancer loginHandlerEnhancer;
+    private final PasskeyAuditService auditService;
+    private final ServerTimingFilter serverTimingFilter;
+    private final PasskeyRequestDecoder requestDecoder;
+    private final AssertionCoalescer assertionCoalescer;
+    private final SecureRandom secureRandom = new SecureRandom();
 
     @Override
     public RouterFunction<ServerResponse> endpoint() {
         return RouterFunctions.route()
-            // Registration endpoints (requires authentication)
-            .POST("/registration/options", this::getRegistrationOptions)
-            .POST("/registration/verify", this::verifyRegistration)
-            // Authentication endpoints (public)
-            .POST("/authentication/options", this::getAuthenticationOptions)
-            .POST("/authentication/verify", this::verifyAuthentication)
+            .add(RouterFunctions.route()
+                // Registration endpoints (requires authentication)
+                .POST("/registration/options", this::getRegistrationOptions)
+                .POST("/registration/verify", this::verifyRegistration)
+                // Authentication endpoints (public)
+                .POST("/authentication/options", this::getAuthenticationOptions)
+                .POST("/authentication/verify", this::verifyAuthentication)
+                .filter(serverTimingFilter)
+                .build())
             // Credential management endpoints (requires authentication)
             .GET("/credentials", this::listCredentials)
             .DELETE("/credentials/{name}", this::deleteCredential)
             .PUT("/credentials/{name}", this::updateCredential)
+            .POST("/credentials/batch-delete", this::deleteCredentials)
+            .POST("/credentials/batch-rename", this::renameCredentials)
+            // Audit endpoints (requires authentication)
+            .GET("/audit/sign-ins", this::listRecentSignIns)
             .build();
     }
 
@@ -61,7 +95,8 @@ public class PasskeyEndpoint implements CustomEndpoint {
 
     private Mono<ServerResponse> getRegistrationOptions(ServerRequest request) {
         return getCurrentUsername()
-            .flatMap(username -> request.bodyToMono(RegistrationOptionsRequest.class)
+            .flatMap(username -> requestDecoder.decode(request, RegistrationOptionsRequest.class,
+                    RegistrationOptionsRequest.MAX_BODY_BYTES)
                 .defaultIfEmpty(new RegistrationOptionsRequest(null, null))
                 .flatMap(req -> webAuthnService.generateRegistrationOptions(
                     username,
@@ -80,8 +115,9 @@ public class PasskeyEndpoint implements CustomEndpoint {
     }
 
     private Mono<ServerResponse> verifyRegistration(ServerRequest request) {
+        var client = auditService.clientInfo(request.exchange().getRequest());
         return getCurrentUsername()
-            .flatMap(username -> request.bodyToMono(RegistrationVerifyRequest.class)
+            .flatMap(username -> decodeRegistration(request)
                 .flatMap(req -> webAuthnService.verifyRegistration(
                     username,
                     req.credentialId(),
@@ -92,6 +128,7 @@ public class PasskeyEndpoint implements CustomEndpoint {
                     req.origin()
                 ))
             )
+            .doOnNext(credential -> auditService.registered(credential, client))
             .flatMap(credential -> ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(new RegistrationResponse(
@@ -106,12 +143,42 @@ public class PasskeyEndpoint implements CustomEndpoint {
             });
     }
 
+    /**
+     * Read a registration response sent either as JSON with Base64URL encoded buffers or as
+     * CBOR with raw byte strings.
+     */
+    private Mono<BinaryRegistrationVerifyRequest> decodeRegistration(ServerRequest request) {
+        if (PasskeyRequestDecoder.isCbor(request)) {
+            return requestDecoder.decode(request, BinaryRegistrationVerifyRequest.class,
+                BinaryRegistrationVerifyRequest.MAX_BODY_BYTES);
+        }
+        return requestDecoder.decode(request, RegistrationVerifyRequest.class,
+                RegistrationVerifyRequest.MAX_BODY_BYTES)
+            .map(RegistrationVerifyRequest::toBinary);
+    }
+
+    /**
+     * Read an assertion sent either as JSON with Base64URL encoded buffers or as CBOR with raw
+     * byte strings.
+     */
+    private Mono<BinaryAuthenticationVerifyRequest> decodeAuthentication(ServerRequest request) {
+        if (PasskeyRequestDecoder.isCbor(request)) {
+            return requestDecoder.decode(request, BinaryAuthenticationVerifyRequest.class,
+                BinaryAuthenticationVerifyRequest.MAX_BODY_BYTES);
+        }
+        return requestDecoder.decode(request, AuthenticationVerifyRequest.class,
+                AuthenticationVerifyRequest.MAX_BODY_BYTES)
+            .map(AuthenticationVerifyRequest::toBinary);
+    }
+
     private Mono<ServerResponse> getAuthenticationOptions(ServerRequest request) {
-        return request.bodyToMono(AuthenticationOptionsRequest.class)
+        return requestDecoder.decode(request, AuthenticationOptionsRequest.class,
+                AuthenticationOptionsRequest.MAX_BODY_BYTES)
             .defaultIfEmpty(new AuthenticationOptionsRequest(null, null))
             .flatMap(req -> webAuthnService.generateAuthenticationOptions(req.username(), req.origin()))
             .flatMap(options -> ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
+                .cookie(ownerCookie(request))
                 .bodyValue(options)
             )
             .onErrorResume(e -> {
@@ -121,31 +188,23 @@ public class PasskeyEndpoint implements CustomEndpoint {
     }
 
     private Mono<ServerResponse> verifyAuthentication(ServerRequest request) {
-        return request.bodyToMono(AuthenticationVerifyRequest.class)
-            .flatMap(req -> webAuthnService.verifyAuthentication(
-                req.sessionId(),
-                req.credentialId(),
-                req.authenticatorData(),
-                req.clientDataJSON(),
-                req.signature(),
-                req.userHandle(),
-                req.origin()
-            ))
-            .flatMap(credential -> {
-                String username = credential.getSpec().getUsername();
-                // Load user details and create authentication
-                return userDetailsService.findByUsername(username)
-                    .flatMap(userDetails -> {
-                        Authentication authentication = new UsernamePasswordAuthenticationToken(
-                            userDetails, null, userDetails.getAuthorities()
-                        );
-                        SecurityContext securityContext = new SecurityContextImpl(authentication);
-                        // Save security context to establish session
-                        return securityContextRepository.save(request.exchange(), securityContext)
-                            // Call login handler enhancer for remember-me, device management, etc.
-                            .then(loginHandlerEnhancer.onLoginSuccess(request.exchange(), authentication))
-                            .thenReturn(credential);
-                    });
+        var client = auditService.clientInfo(request.exchange().getRequest());
+        return decodeAuthentication(request)
+            .flatMap(req -> {
+                String credentialId = req.encodedCredentialId();
+                // Set once loaded, so a failure is audited without looking the credential up
+                var attempted = new AtomicReference<PasskeyCredential>();
+                // A double click or retry of the same client shares the verification and the
+                // sign-in of its first submission
+                return assertionCoalescer.coalesce(owner(request), req.sessionId(),
+                        credentialId, req.digest(),
+                        () -> webAuthnService.findCredential(credentialId)
+                            .doOnNext(attempted::set)
+                            .flatMap(credential -> verify(req, credential))
+                            .flatMap(verified -> signIn(request, verified)))
+                    .doOnNext(credential -> auditService.signInSucceeded(credential, client))
+                    .doOnError(e -> auditService.signInFailed(attempted.get(), credentialId,
+                        client, e.getMessage()));
             })
             .flatMap(credential -> ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
@@ -161,6 +220,94 @@ public class PasskeyEndpoint implements CustomEndpoint {
             });
     }
 
+    /**
+     * Identifies the client posting assertions, so only its own duplicates share a sign-in.
+     *
+     * <p>Not the web session: none may exist yet on the login page, and saving the security
+     * context changes its ID, so a retry after a lost response would not carry it anymore. The
+     * cookie is issued with the authentication options and kept as long as a challenge
+     * lives.</p>
+     */
+    private ResponseCookie ownerCookie(ServerRequest request) {
+        var owner = owner(request);
+        if (owner == null) {
+            byte[] token = new byte[OWNER_TOKEN_BYTES];
+            secureRandom.nextBytes(token);
+            owner = Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+        }
+        return ResponseCookie.from(OWNER_COOKIE, owner)
+            .httpOnly(true)
+            .secure("https".equalsIgnoreCase(request.uri().getScheme()))
+            .sameSite("Strict")
+            .path("/")
+            .maxAge(OWNER_COOKIE_MAX_AGE)
+            .build();
+    }
+
+    private static String owner(ServerRequest request) {
+        var cookie = request.cookies().getFirst(OWNER_COOKIE);
+        if (cookie == null || cookie.getValue().isBlank()
+            || cookie.getValue().length() > OWNER_TOKEN_MAX_LENGTH) {
+            return null;
+        }
+        return cookie.getValue();
+    }
+
+    /**
+     * Verify the assertion and resolve the owner of the credential.
+     *
+     * <p>The user details are loaded while the signature is verified, both only need the
+     * credential.</p>
+     */
+    private Mono<VerifiedAssertion> verify(BinaryAuthenticationVerifyRequest req,
+        PasskeyCredential credential) {
+        // Subscribed before the verification, which runs on the calling thread
+        var userDetails = ServerTiming.timed(ServerTiming.USER,
+                userDetailsCache.findByUsername(credential.getSpec().getUsername()))
+            .map(Optional::of)
+            .defaultIfEmpty(Optional.empty());
+        var signCount = webAuthnService.verifyAssertion(credential, req.sessionId(),
+            req.authenticatorData(), req.clientDataJSON(), req.signature(), req.userHandle(),
+            req.origin());
+        return Mono.zip(userDetails, signCount)
+            .map(verified -> {
+                // Only reveal a missing or disabled user once the assertion has been verified
+                var user = verified.getT1()
+                    .orElseThrow(() -> new IllegalStateException("用户不存在"));
+                if (!user.isEnabled()) {
+                    throw new IllegalStateException("用户已被禁用");
+                }
+                return new VerifiedAssertion(credential, user,
+                    webAuthnService.recordSignIn(credential, verified.getT2()));
+            });
+    }
+
+    /**
+     * Sign the owner of a verified credential in.
+     *
+     * <p>The counter is persisted while the security context is saved to the session. Only
+     * when both have succeeded is the login handed to the login handler enhancer, which issues
+     * remember-me tokens and registers the device, so a sign-in whose counter cannot be
+     * persisted leaves nothing behind but the invalidated session.</p>
+     */
+    private Mono<PasskeyCredential> signIn(ServerRequest request, VerifiedAssertion verified) {
+        var userDetails = verified.user();
+        Authentication authentication = new UsernamePasswordAuthenticationToken(
+            userDetails, null, userDetails.getAuthorities()
+        );
+        SecurityContext securityContext = new SecurityContextImpl(authentication);
+        var exchange = request.exchange();
+        return Mono.when(verified.counterWrite(), ServerTiming.timed(ServerTiming.SESSION,
+                securityContextRepository.save(exchange, securityContext)))
+            // Remember-me, device management, etc.
+            .then(ServerTiming.timed(ServerTiming.SESSION,
+                Mono.defer(() -> loginHandlerEnhancer.onLoginSuccess(exchange, authentication))))
+            .onErrorResume(e -> exchange.getSession()
+                .flatMap(WebSession::invalidate)
+                .then(Mono.error(e)))
+            .thenReturn(verified.credential());
+    }
+
     private Mono<ServerResponse> listCredentials(ServerRequest request) {
         return getCurrentUsername()
             .flatMapMany(credentialService::findByUsername)
@@ -184,12 +331,15 @@ public class PasskeyEndpoint implements CustomEndpoint {
 
     private Mono<ServerResponse> deleteCredential(ServerRequest request) {
         String name = request.pathVariable("name");
+        var client = auditService.clientInfo(request.exchange().getRequest());
         return getCurrentUsername()
             .flatMap(username -> credentialService.findByName(name)
                 .filter(cred -> cred.getSpec().getUsername().equals(username))
                 .switchIfEmpty(Mono.error(new IllegalStateException("凭证不存在或无权访问")))
             )
-            .flatMap(credential -> credentialService.delete(credential.getMetadata().getName()))
+            .flatMap(credential -> credentialService.delete(credential.getMetadata().getName())
+                .doOnNext(deleted -> auditService.deleted(credential, client))
+            )
             .flatMap(deleted -> ServerResponse.ok().bodyValue(new DeleteResponse(true)))
             .onErrorResume(e -> {
                 log.error("Failed to delete credential", e);
@@ -199,18 +349,15 @@ public class PasskeyEndpoint implements CustomEndpoint {
 
     private Mono<ServerResponse> updateCredential(ServerRequest request) {
         String name = request.pathVariable("name");
+        var client = auditService.clientInfo(request.exchange().getRequest());
         return getCurrentUsername()
             .flatMap(username -> credentialService.findByName(name)
                 .filter(cred -> cred.getSpec().getUsername().equals(username))
                 .switchIfEmpty(Mono.error(new IllegalStateException("凭证不存在或无权访问")))
             )
-            .flatMap(credential -> request.bodyToMono(UpdateCredentialRequest.class)
-                .flatMap(req -> {
-                    if (req.displayName() != null) {
-                        credential.getSpec().setDisplayName(req.displayName());
-                    }
-                    return credentialService.update(credential);
-                })
+            .flatMap(credential -> requestDecoder.decode(request, UpdateCredentialRequest.class,
+                    UpdateCredentialRequest.MAX_BODY_BYTES)
+                .flatMap(req -> rename(credential, req.displayName(), client))
             )
             .flatMap(updated -> ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
@@ -222,6 +369,131 @@ public class PasskeyEndpoint implements CustomEndpoint {
             });
     }
 
+    private Mono<PasskeyCredential> rename(PasskeyCredential credential, String displayName,
+        PasskeyAuditService.ClientInfo client) {
+        String previousName = credential.getSpec().getDisplayName();
+        if (displayName == null || displayName.equals(previousName)) {
+            return credentialService.update(credential);
+        }
+        credential.getSpec().setDisplayName(displayName);
+        return credentialService.update(credential)
+            .doOnNext(updated -> auditService.renamed(updated, previousName, client));
+    }
+
+    private Mono<ServerResponse> deleteCredentials(ServerRequest request) {
+        var client = auditService.clientInfo(request.exchange().getRequest());
+        return getCurrentUsername()
+            .flatMap(username -> requestDecoder.decode(request, BatchDeleteRequest.class,
+                    BatchDeleteRequest.MAX_BODY_BYTES)
+                .flatMap(req -> applyBatch(username, req.names(),
+                    credential -> credentialService.delete(credential)
+                        .doOnNext(deleted -> auditService.deleted(credential, client))))
+            )
+            .flatMap(results -> ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new BatchResponse(results))
+            )
+            .onErrorResume(e -> {
+                log.error("Failed to delete credentials", e);
+                return ServerResponse.badRequest().bodyValue(new ErrorResponse(e.getMessage()));
+            });
+    }
+
+    private Mono<ServerResponse> renameCredentials(ServerRequest request) {
+        var client = auditService.clientInfo(request.exchange().getRequest());
+        return getCurrentUsername()
+            .flatMap(username -> requestDecoder.decode(request, BatchRenameRequest.class,
+                    BatchRenameRequest.MAX_BODY_BYTES)
+                .flatMap(req -> {
+                    // The last entry wins when a name is listed twice
+                    Map<String, String> displayNames = new LinkedHashMap<>();
+                    req.items().forEach(item -> displayNames.put(item.name(), item.displayName()));
+                    return applyBatch(username, List.copyOf(displayNames.keySet()),
+                        credential -> rename(credential,
+                            displayNames.get(credential.getMetadata().getName()), client));
+                })
+            )
+            .flatMap(results -> ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new BatchResponse(results))
+            )
+            .onErrorResume(e -> {
+                log.error("Failed to rename credentials", e);
+                return ServerResponse.badRequest().bodyValue(new ErrorResponse(e.getMessage()));
+            });
+    }
+
+    /**
+     * Check ownership of all named credentials with one indexed query, then apply the action to
+     * the owned ones with bounded concurrency. One result per distinct name, in request order; a
+     * failing item does not stop the others.
+     */
+    private Mono<List<BatchItemResult>> applyBatch(String username, List<String> names,
+        Function<PasskeyCredential, Mono<?>> action) {
+        var distinctNames = new LinkedHashSet<>(names);
+        return credentialService.findByNames(username, distinctNames)
+            .collectMap(credential -> credential.getMetadata().getName())
+            .flatMapMany(owned -> Flux.fromIterable(distinctNames)
+                .flatMapSequential(name -> {
+                    var credential = owned.get(name);
+                    if (credential == null) {
+                        return Mono.just(new BatchItemResult(name, false, "凭证不存在或无权访问"));
+                    }
+                    return action.apply(credential)
+                        .thenReturn(new BatchItemResult(name, true, null))
+                        .onErrorResume(e -> {
+                            log.warn("Failed to apply batch action to credential {}", name, e);
+                            return Mono.just(new BatchItemResult(name, false, e.getMessage()));
+                        });
+                }, BATCH_CONCURRENCY))
+            .collectList();
+    }
+
+    private Mono<ServerResponse> listRecentSignIns(ServerRequest request) {
+        return getCurrentUsername()
+            .flatMap(username -> Mono.fromCallable(
+                    () -> intParam(request, "page", 1, 1, Integer.MAX_VALUE))
+                .zipWith(Mono.fromCallable(() -> intParam(request, "size", 10, 1, MAX_PAGE_SIZE)))
+                .flatMap(paging -> auditService.listRecentSignIns(username, paging.getT1(),
+                    paging.getT2())))
+            .map(result -> new ListResult<>(result.getPage(), result.getSize(), result.getTotal(),
+                result.getItems().stream()
+                    .map(event -> new SignInInfo(
+                        event.getSpec().getType() == PasskeyAuditEvent.Type.SIGN_IN_SUCCEEDED,
+                        event.getSpec().getCredentialName(),
+                        event.getSpec().getDisplayName(),
+                        event.getSpec().getIpAddress(),
+                        event.getSpec().getUserAgent(),
+                        event.getSpec().getDetail(),
+                        event.getSpec().getOccurredAt().toString()
+                    ))
+                    .toList()))
+            .flatMap(result -> ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(result)
+            )
+            .onErrorResume(e -> {
+                log.error("Failed to list recent sign-ins", e);
+                return ServerResponse.badRequest().bodyValue(new ErrorResponse(e.getMessage()));
+            });
+    }
+
+    /**
+     * An integer query parameter, clamped to the given range.
+     */
+    private static int intParam(ServerRequest request, String name, int defaultValue, int min,
+        int max) {
+        var value = request.queryParam(name);
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.min(Math.max(Integer.parseInt(value.get()), min), max);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("无效的参数: " + name);
+        }
+    }
+
     private Mono<String> getCurrentUsername() {
         return ReactiveSecurityContextHolder.getContext()
             .map(SecurityContext::getAuthentication)
@@ -231,7 +503,17 @@ public class PasskeyEndpoint implements CustomEndpoint {
     }
 
     // Request/Response records
-    record RegistrationOptionsRequest(String displayName, String origin) {}
+    record RegistrationOptionsRequest(String displayName, String origin)
+        implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 4 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.optionalText("displayName", displayName, PasskeyRequestDecoder.MAX_NAME_LENGTH);
+            decoder.optionalText("origin", origin, PasskeyRequestDecoder.MAX_ORIGIN_LENGTH);
+        }
+    }
 
     record RegistrationVerifyRequest(
         String credentialId,
@@ -240,9 +522,72 @@ public class PasskeyEndpoint implements CustomEndpoint {
         List<String> transports,
         String displayName,
         String origin
-    ) {}
+    ) implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 64 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.requireBase64Url("credentialId", credentialId,
+                PasskeyRequestDecoder.MAX_CREDENTIAL_ID_BYTES);
+            decoder.requireBase64Url("attestationObject", attestationObject,
+                PasskeyRequestDecoder.MAX_ATTESTATION_OBJECT_BYTES);
+            decoder.requireBase64Url("clientDataJSON", clientDataJSON,
+                PasskeyRequestDecoder.MAX_CLIENT_DATA_BYTES);
+            decoder.optionalTexts("transports", transports, PasskeyRequestDecoder.MAX_TRANSPORTS,
+                PasskeyRequestDecoder.MAX_TRANSPORT_LENGTH);
+            decoder.optionalText("displayName", displayName, PasskeyRequestDecoder.MAX_NAME_LENGTH);
+            decoder.optionalText("origin", origin, PasskeyRequestDecoder.MAX_ORIGIN_LENGTH);
+        }
+
+        BinaryRegistrationVerifyRequest toBinary() {
+            var base64 = Base64.getUrlDecoder();
+            return new BinaryRegistrationVerifyRequest(base64.decode(credentialId),
+                base64.decode(attestationObject), base64.decode(clientDataJSON), transports,
+                displayName, origin);
+        }
+    }
+
+    /**
+     * A {@link RegistrationVerifyRequest} sent as CBOR, with the buffers as byte strings.
+     */
+    record BinaryRegistrationVerifyRequest(
+        byte[] credentialId,
+        byte[] attestationObject,
+        byte[] clientDataJSON,
+        List<String> transports,
+        String displayName,
+        String origin
+    ) implements PasskeyRequestDecoder.BoundedRequest {
 
-    record AuthenticationOptionsRequest(String username, String origin) {}
+        static final int MAX_BODY_BYTES = 48 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.requireBytes("credentialId", credentialId,
+                PasskeyRequestDecoder.MAX_CREDENTIAL_ID_BYTES);
+            decoder.requireBytes("attestationObject", attestationObject,
+                PasskeyRequestDecoder.MAX_ATTESTATION_OBJECT_BYTES);
+            decoder.requireBytes("clientDataJSON", clientDataJSON,
+                PasskeyRequestDecoder.MAX_CLIENT_DATA_BYTES);
+            decoder.optionalTexts("transports", transports, PasskeyRequestDecoder.MAX_TRANSPORTS,
+                PasskeyRequestDecoder.MAX_TRANSPORT_LENGTH);
+            decoder.optionalText("displayName", displayName, PasskeyRequestDecoder.MAX_NAME_LENGTH);
+            decoder.optionalText("origin", origin, PasskeyRequestDecoder.MAX_ORIGIN_LENGTH);
+        }
+    }
+
+    record AuthenticationOptionsRequest(String username, String origin)
+        implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 4 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.optionalText("username", username, PasskeyRequestDecoder.MAX_NAME_LENGTH);
+            decoder.optionalText("origin", origin, PasskeyRequestDecoder.MAX_ORIGIN_LENGTH);
+        }
+    }
 
     record AuthenticationVerifyRequest(
         String sessionId,
@@ -252,7 +597,90 @@ public class PasskeyEndpoint implements CustomEndpoint {
         String signature,
         String userHandle,
         String origin
-    ) {}
+    ) implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 16 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.requireText("sessionId", sessionId,
+                PasskeyRequestDecoder.MAX_SESSION_ID_LENGTH);
+            decoder.requireBase64Url("credentialId", credentialId,
+                PasskeyRequestDecoder.MAX_CREDENTIAL_ID_BYTES);
+            decoder.requireBase64Url("authenticatorData", authenticatorData,
+                PasskeyRequestDecoder.MAX_AUTHENTICATOR_DATA_BYTES);
+            decoder.requireBase64Url("clientDataJSON", clientDataJSON,
+                PasskeyRequestDecoder.MAX_CLIENT_DATA_BYTES);
+            decoder.requireBase64Url("signature", signature,
+                PasskeyRequestDecoder.MAX_SIGNATURE_BYTES);
+            decoder.optionalBase64Url("userHandle", userHandle,
+                PasskeyRequestDecoder.MAX_USER_HANDLE_BYTES);
+            decoder.optionalText("origin", origin, PasskeyRequestDecoder.MAX_ORIGIN_LENGTH);
+        }
+
+        BinaryAuthenticationVerifyRequest toBinary() {
+            var base64 = Base64.getUrlDecoder();
+            return new BinaryAuthenticationVerifyRequest(sessionId, base64.decode(credentialId),
+                base64.decode(authenticatorData), base64.decode(clientDataJSON),
+                base64.decode(signature), userHandle != null ? base64.decode(userHandle) : null,
+                origin);
+        }
+    }
+
+    /**
+     * An {@link AuthenticationVerifyRequest} sent as CBOR, with the buffers as byte strings.
+     */
+    record BinaryAuthenticationVerifyRequest(
+        String sessionId,
+        byte[] credentialId,
+        byte[] authenticatorData,
+        byte[] clientDataJSON,
+        byte[] signature,
+        byte[] userHandle,
+        String origin
+    ) implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 12 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.requireText("sessionId", sessionId,
+                PasskeyRequestDecoder.MAX_SESSION_ID_LENGTH);
+            decoder.requireBytes("credentialId", credentialId,
+                PasskeyRequestDecoder.MAX_CREDENTIAL_ID_BYTES);
+            decoder.requireBytes("authenticatorData", authenticatorData,
+                PasskeyRequestDecoder.MAX_AUTHENTICATOR_DATA_BYTES);
+            decoder.requireBytes("clientDataJSON", clientDataJSON,
+                PasskeyRequestDecoder.MAX_CLIENT_DATA_BYTES);
+            decoder.requireBytes("signature", signature,
+                PasskeyRequestDecoder.MAX_SIGNATURE_BYTES);
+            decoder.optionalBytes("userHandle", userHandle,
+                PasskeyRequestDecoder.MAX_USER_HANDLE_BYTES);
+            decoder.optionalText("origin", origin, PasskeyRequestDecoder.MAX_ORIGIN_LENGTH);
+        }
+
+        /**
+         * Identifies the payload, to tell a duplicate submission from a different one.
+         */
+        byte[] digest() {
+            return AssertionCoalescer.digest(credentialId, authenticatorData, clientDataJSON,
+                signature, userHandle,
+                origin == null ? null : origin.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * The credential ID as stored, Base64URL encoded without padding.
+         */
+        String encodedCredentialId() {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(credentialId);
+        }
+    }
+
+    /**
+     * An assertion verified for an enabled user, with the counter write of the sign-in.
+     */
+    private record VerifiedAssertion(PasskeyCredential credential, UserDetails user,
+                                     Mono<PasskeyCredential> counterWrite) {}
 
     record RegistrationResponse(String name, String credentialId, String displayName) {}
 
@@ -272,9 +700,68 @@ public class PasskeyEndpoint implements CustomEndpoint {
 
     record DeleteResponse(boolean success) {}
 
-    record UpdateCredentialRequest(String displayName) {}
+    record UpdateCredentialRequest(String displayName)
+        implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 4 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.optionalText("displayName", displayName, PasskeyRequestDecoder.MAX_NAME_LENGTH);
+        }
+    }
 
     record UpdateResponse(boolean success) {}
 
+    record BatchDeleteRequest(List<String> names)
+        implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 32 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.requireTexts("names", names, MAX_BATCH_SIZE,
+                PasskeyRequestDecoder.MAX_NAME_LENGTH);
+        }
+    }
+
+    record BatchRenameRequest(List<RenameItem> items)
+        implements PasskeyRequestDecoder.BoundedRequest {
+
+        static final int MAX_BODY_BYTES = 64 * 1024;
+
+        @Override
+        public void validate(PasskeyRequestDecoder decoder) {
+            decoder.requireItems("items", items, MAX_BATCH_SIZE);
+            for (RenameItem item : items) {
+                decoder.requireText("name", item == null ? null : item.name(),
+                    PasskeyRequestDecoder.MAX_NAME_LENGTH);
+                decoder.requireText("displayName", item.displayName(),
+                    PasskeyRequestDecoder.MAX_NAME_LENGTH);
+            }
+        }
+    }
+
+    record RenameItem(String name, String displayName) {}
+
+    /**
+     * Outcome for one credential of a batch request.
+     *
+     * @param message why the credential was not changed, null on success
+     */
+    record BatchItemResult(String name, boolean success, String message) {}
+
+    record BatchResponse(List<BatchItemResult> results) {}
+
+    record SignInInfo(
+        boolean success,
+        String credentialName,
+        String displayName,
+        String ipAddress,
+        String userAgent,
+        String detail,
+        String occurredAt
+    ) {}
+
     record ErrorResponse(String message) {}
 }
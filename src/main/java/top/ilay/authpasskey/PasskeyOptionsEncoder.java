@@ -0,0 +1,188 @@
+package top.ilay.authpasskey;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Encodes registration and authentication options to JSON without reflection.
+ *
+ * <p>Everything but the challenge, the user, the session ID and the credential descriptors is
+ * the same for every request to one relying party, so those parts are encoded once per RP ID
+ * and attestation preference. A request only copies the cached fragments and the variable
+ * values into a single exactly sized array.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+class PasskeyOptionsEncoder {
+
+    static final String RP_NAME = "Halo";
+    static final long TIMEOUT_MILLIS = 60000L;
+    static final String USER_VERIFICATION = "preferred";
+    static final String RESIDENT_KEY = "preferred";
+
+    /**
+     * An empty descriptor list.
+     */
+    static final byte[] NO_DESCRIPTORS = ascii("[]");
+
+    /**
+     * RP IDs come from the client supplied origin, so the number of cached templates is bounded.
+     */
+    static final int MAXIMUM_TEMPLATES = 64;
+
+    private static final byte[] CHALLENGE_PREFIX = ascii("{\"challenge\":\"");
+    private static final byte[] USER_NAME_PREFIX = ascii("\",\"name\":");
+    private static final byte[] USER_DISPLAY_NAME_PREFIX = ascii(",\"displayName\":");
+    private static final byte[] EXCLUDE_CREDENTIALS_PREFIX = ascii("},\"excludeCredentials\":");
+    private static final byte[] SESSION_ID_SUFFIX = ascii("\"}");
+
+    private final Cache<TemplateKey, Template> templates = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_TEMPLATES)
+        .build();
+
+    /**
+     * Encode creation options:
+     * {@code {"challenge","rp","user","excludeCredentials","authenticatorSelection","timeout",
+     * "pubKeyCredParams","attestation"}}.
+     */
+    byte[] registration(String rpId, String attestation, byte[] challenge, byte[] userId,
+        String username, String displayName, byte[] excludeCredentials) {
+        var template = template(rpId, attestation);
+        return concat(
+            CHALLENGE_PREFIX,
+            challenge,
+            template.registrationUserPrefix(),
+            userId,
+            USER_NAME_PREFIX,
+            quote(username),
+            USER_DISPLAY_NAME_PREFIX,
+            quote(displayName),
+            EXCLUDE_CREDENTIALS_PREFIX,
+            excludeCredentials,
+            template.registrationSuffix()
+        );
+    }
+
+    /**
+     * Encode request options:
+     * {@code {"challenge","rpId","timeout","allowCredentials","userVerification","sessionId"}}.
+     */
+    byte[] authentication(String rpId, byte[] challenge, byte[] allowCredentials,
+        byte[] sessionId) {
+        var template = template(rpId, null);
+        return concat(
+            CHALLENGE_PREFIX,
+            challenge,
+            template.authenticationInfix(),
+            allowCredentials,
+            template.authenticationSessionPrefix(),
+            sessionId,
+            SESSION_ID_SUFFIX
+        );
+    }
+
+    /**
+     * Encode public key credential descriptors.
+     */
+    static byte[] descriptors(Collection<PasskeyCredential> credentials) {
+        if (credentials.isEmpty()) {
+            return NO_DESCRIPTORS;
+        }
+        var json = new StringBuilder(credentials.size() * 128).append('[');
+        for (PasskeyCredential credential : credentials) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"public-key\",\"id\":");
+            appendQuoted(json, credential.getSpec().getCredentialId());
+            String[] transports = credential.getSpec().getTransports();
+            if (transports != null && transports.length > 0) {
+                json.append(",\"transports\":[");
+                for (int i = 0; i < transports.length; i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    appendQuoted(json, transports[i]);
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Template template(String rpId, String attestation) {
+        return templates.get(new TemplateKey(rpId, attestation), PasskeyOptionsEncoder::encode);
+    }
+
+    private static Template encode(TemplateKey key) {
+        var rpId = new StringBuilder();
+        appendQuoted(rpId, key.rpId());
+        var registrationUserPrefix = "\",\"rp\":{\"id\":" + rpId + ",\"name\":\"" + RP_NAME
+            + "\"},\"user\":{\"id\":\"";
+        var registrationSuffix = ",\"authenticatorSelection\":{\"residentKey\":\""
+            + RESIDENT_KEY + "\",\"userVerification\":\"" + USER_VERIFICATION + "\"},"
+            + "\"timeout\":" + TIMEOUT_MILLIS + ","
+            // ES256 and RS256
+            + "\"pubKeyCredParams\":[{\"type\":\"public-key\",\"alg\":-7},"
+            + "{\"type\":\"public-key\",\"alg\":-257}],"
+            + "\"attestation\":\"" + (key.attestation() == null ? "none" : key.attestation())
+            + "\"}";
+        var authenticationInfix = "\",\"rpId\":" + rpId + ",\"timeout\":" + TIMEOUT_MILLIS
+            + ",\"allowCredentials\":";
+        var authenticationSessionPrefix = ",\"userVerification\":\"" + USER_VERIFICATION
+            + "\",\"sessionId\":\"";
+        return new Template(
+            registrationUserPrefix.getBytes(StandardCharsets.UTF_8),
+            registrationSuffix.getBytes(StandardCharsets.UTF_8),
+            authenticationInfix.getBytes(StandardCharsets.UTF_8),
+            authenticationSessionPrefix.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    private static void appendQuoted(StringBuilder json, String value) {
+        json.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(value, json);
+        json.append('"');
+    }
+
+    private static byte[] quote(String value) {
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        byte[] quoted = new byte[escaped.length + 2];
+        quoted[0] = '"';
+        System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+        quoted[quoted.length - 1] = '"';
+        return quoted;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private record TemplateKey(String rpId, String attestation) {}
+
+    private record Template(
+        byte[] registrationUserPrefix,
+        byte[] registrationSuffix,
+        byte[] authenticationInfix,
+        byte[] authenticationSessionPrefix
+    ) {}
+}
@@ -0,0 +1,253 @@
+package top.ilay.authpasskey;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import reactor.core.publisher.Mono;
+
+/**
+ * Decodes passkey request bodies within fixed bounds.
+ *
+ * <p>The body is rejected from its {@code Content-Length} before anything is read, and while
+ * streaming once it exceeds the endpoint's cap, so oversized requests never get buffered in
+ * full. After parsing, each request validates its fields against WebAuthn limits (such as a
+ * credential ID of at most 1023 bytes) before any of them is Base64 decoded. Every rejection is
+ * counted by reason.</p>
+ *
+ * <p>Bodies sent as {@code application/cbor} are read with the CBOR support webauthn4j brings
+ * along, under the same limits. Their WebAuthn buffers arrive as raw byte strings, so neither
+ * side has to Base64 encode them.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+public class PasskeyRequestDecoder {
+
+    static final int MAX_NESTING_DEPTH = 8;
+    static final int MAX_STRING_LENGTH = 64 * 1024;
+
+    // Field limits, the credential ID and user handle limits come from the WebAuthn spec
+    static final int MAX_CREDENTIAL_ID_BYTES = 1023;
+    static final int MAX_USER_HANDLE_BYTES = 64;
+    static final int MAX_CLIENT_DATA_BYTES = 4 * 1024;
+    static final int MAX_AUTHENTICATOR_DATA_BYTES = 4 * 1024;
+    static final int MAX_ATTESTATION_OBJECT_BYTES = 32 * 1024;
+    static final int MAX_SIGNATURE_BYTES = 1024;
+    static final int MAX_TRANSPORTS = 8;
+    static final int MAX_TRANSPORT_LENGTH = 32;
+    static final int MAX_SESSION_ID_LENGTH = 128;
+    static final int MAX_ORIGIN_LENGTH = 2048;
+    static final int MAX_NAME_LENGTH = 256;
+
+    private static final StreamReadConstraints READ_CONSTRAINTS = StreamReadConstraints.builder()
+        .maxNestingDepth(MAX_NESTING_DEPTH)
+        .maxStringLength(MAX_STRING_LENGTH)
+        .build();
+
+    private final ObjectMapper objectMapper = JsonMapper.builder(JsonFactory.builder()
+            .streamReadConstraints(READ_CONSTRAINTS)
+            .build())
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .build();
+    private final ObjectMapper cborMapper = CBORMapper.builder(CBORFactory.builder()
+            .streamReadConstraints(READ_CONSTRAINTS)
+            .build())
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .build();
+
+    private final Map<Reason, LongAdder> rejections = new EnumMap<>(Reason.class);
+
+    public PasskeyRequestDecoder() {
+        for (Reason reason : Reason.values()) {
+            rejections.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Whether the request body is CBOR rather than JSON.
+     */
+    public static boolean isCbor(ServerRequest request) {
+        return request.headers().contentType()
+            .map(MediaType.APPLICATION_CBOR::isCompatibleWith)
+            .orElse(false);
+    }
+
+    /**
+     * Read and validate a JSON or CBOR request body of at most {@code maxBodyBytes} bytes.
+     * Completes empty when the body is empty.
+     */
+    public <T extends BoundedRequest> Mono<T> decode(ServerRequest request, Class<T> type,
+        int maxBodyBytes) {
+        long contentLength = request.headers().contentLength().orElse(-1);
+        if (contentLength > maxBodyBytes) {
+            return Mono.error(reject(Reason.BODY_TOO_LARGE, null));
+        }
+        var mapper = isCbor(request) ? cborMapper : objectMapper;
+        return DataBufferUtils.join(request.body(BodyExtractors.toDataBuffers()), maxBodyBytes)
+            .onErrorMap(DataBufferLimitException.class,
+                e -> reject(Reason.BODY_TOO_LARGE, null))
+            .map(buffer -> {
+                try (InputStream inputStream = buffer.asInputStream(true)) {
+                    return mapper.readValue(inputStream, type);
+                } catch (IOException e) {
+                    throw reject(Reason.MALFORMED_BODY, null);
+                }
+            })
+            .doOnNext(body -> body.validate(this));
+    }
+
+    /**
+     * Require a Base64URL encoded field that decodes to at most {@code maxBytes} bytes.
+     */
+    public void requireBase64Url(String field, String value, int maxBytes) {
+        if (value == null || value.isEmpty()) {
+            throw reject(Reason.MISSING_FIELD, field);
+        }
+        optionalBase64Url(field, value, maxBytes);
+    }
+
+    /**
+     * Check a Base64URL encoded field, if present, decodes to at most {@code maxBytes} bytes.
+     * Only the encoded form is inspected, nothing is decoded.
+     */
+    public void optionalBase64Url(String field, String value, int maxBytes) {
+        if (value == null) {
+            return;
+        }
+        // Four characters per three bytes, padded or not
+        if (value.length() > (maxBytes + 2) / 3 * 4) {
+            throw reject(Reason.FIELD_TOO_LONG, field);
+        }
+        int length = value.length();
+        while (length > 0 && value.charAt(length - 1) == '=') {
+            length--;
+        }
+        int padding = value.length() - length;
+        // Padding, if any, has to complete the last quantum exactly
+        if (length % 4 == 1
+            || padding > 0 && (value.length() % 4 != 0 || padding != (4 - length % 4) % 4)) {
+            throw reject(Reason.INVALID_ENCODING, field);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            boolean valid = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            if (!valid) {
+                throw reject(Reason.INVALID_ENCODING, field);
+            }
+        }
+    }
+
+    /**
+     * Require a raw byte string field of at most {@code maxBytes} bytes.
+     */
+    public void requireBytes(String field, byte[] value, int maxBytes) {
+        if (value == null || value.length == 0) {
+            throw reject(Reason.MISSING_FIELD, field);
+        }
+        optionalBytes(field, value, maxBytes);
+    }
+
+    public void optionalBytes(String field, byte[] value, int maxBytes) {
+        if (value != null && value.length > maxBytes) {
+            throw reject(Reason.FIELD_TOO_LONG, field);
+        }
+    }
+
+    public void requireText(String field, String value, int maxLength) {
+        if (value == null || value.isEmpty()) {
+            throw reject(Reason.MISSING_FIELD, field);
+        }
+        optionalText(field, value, maxLength);
+    }
+
+    public void optionalText(String field, String value, int maxLength) {
+        if (value != null && value.length() > maxLength) {
+            throw reject(Reason.FIELD_TOO_LONG, field);
+        }
+    }
+
+    public void optionalTexts(String field, Collection<String> values, int maxSize,
+        int maxLength) {
+        if (values == null) {
+            return;
+        }
+        if (values.size() > maxSize) {
+            throw reject(Reason.FIELD_TOO_LONG, field);
+        }
+        for (String value : values) {
+            optionalText(field, value, maxLength);
+        }
+    }
+
+    /**
+     * Require a non-empty list of at most {@code maxSize} items.
+     */
+    public void requireItems(String field, Collection<?> values, int maxSize) {
+        if (values == null || values.isEmpty()) {
+            throw reject(Reason.MISSING_FIELD, field);
+        }
+        if (values.size() > maxSize) {
+            throw reject(Reason.FIELD_TOO_LONG, field);
+        }
+    }
+
+    public void requireTexts(String field, Collection<String> values, int maxSize,
+        int maxLength) {
+        requireItems(field, values, maxSize);
+        for (String value : values) {
+            requireText(field, value, maxLength);
+        }
+    }
+
+    public Map<Reason, Long> stats() {
+        Map<Reason, Long> stats = new EnumMap<>(Reason.class);
+        rejections.forEach((reason, count) -> stats.put(reason, count.sum()));
+        return stats;
+    }
+
+    private IllegalStateException reject(Reason reason, String field) {
+        rejections.get(reason).increment();
+        return new IllegalStateException(
+            field == null ? reason.message : reason.message + ": " + field);
+    }
+
+    /**
+     * A request body that knows its own field limits.
+     */
+    public interface BoundedRequest {
+
+        void validate(PasskeyRequestDecoder decoder);
+    }
+
+    public enum Reason {
+        BODY_TOO_LARGE("请求体过大"),
+        MALFORMED_BODY("请求体格式错误"),
+        MISSING_FIELD("缺少必填字段"),
+        FIELD_TOO_LONG("字段长度超出限制"),
+        INVALID_ENCODING("字段编码无效");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package top.ilay.authpasskey;
+
+import java.time.Duration;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import run.halo.app.plugin.PluginConfigUpdatedEvent;
+import run.halo.app.plugin.ReactiveSettingFetcher;
+import run.halo.app.plugin.event.PluginStartedEvent;
+
+/**
+ * Holds the latest snapshot of the plugin settings so that hot paths can read them without
+ * going through the setting fetcher on every request.
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PasskeySettings {
+
+    private final ReactiveSettingFetcher settingFetcher;
+
+    private volatile Audit audit = Audit.DEFAULT;
+
+    private volatile Observability observability = Observability.DEFAULT;
+
+    private volatile Attestation attestation = Attestation.DEFAULT;
+
+    private volatile Maintenance maintenance = Maintenance.DEFAULT;
+
+    private volatile Performance performance = Performance.DEFAULT;
+
+    private volatile Resilience resilience = Resilience.DEFAULT;
+
+    public Audit audit() {
+        return audit;
+    }
+
+    public Observability observability() {
+        return observability;
+    }
+
+    public Attestation attestation() {
+        return attestation;
+    }
+
+    public Maintenance maintenance() {
+        return maintenance;
+    }
+
+    public Performance performance() {
+        return performance;
+    }
+
+    public Resilience resilience() {
+        return resilience;
+    }
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        reload();
+    }
+
+    @EventListener(PluginConfigUpdatedEvent.class)
+    public void onConfigUpdated() {
+        reload();
+    }
+
+    /**
+     * Reload all setting groups from the config map.
+     */
+    public void reload() {
+        settingFetcher.fetch(Audit.GROUP, Audit.class)
+            .defaultIfEmpty(Audit.DEFAULT)
+            .subscribe(
+                value -> this.audit = value,
+                e -> log.warn("Failed to load passkey audit settings", e)
+            );
+        settingFetcher.fetch(Observability.GROUP, Observability.class)
+            .defaultIfEmpty(Observability.DEFAULT)
+            .subscribe(
+                value -> this.observability = value,
+                e -> log.warn("Failed to load passkey observability settings", e)
+            );
+        settingFetcher.fetch(Attestation.GROUP, Attestation.class)
+            .defaultIfEmpty(Attestation.DEFAULT)
+            .subscribe(
+                value -> this.attestation = value,
+                e -> log.warn("Failed to load passkey attestation settings", e)
+            );
+        settingFetcher.fetch(Maintenance.GROUP, Maintenance.class)
+            .defaultIfEmpty(Maintenance.DEFAULT)
+            .subscribe(
+                value -> this.maintenance = value,
+                e -> log.warn("Failed to load passkey maintenance settings", e)
+            );
+        settingFetcher.fetch(Performance.GROUP, Performance.class)
+            .defaultIfEmpty(Performance.DEFAULT)
+            .subscribe(
+                value -> this.performance = value,
+                e -> log.warn("Failed to load passkey performance settings", e)
+            );
+        settingFetcher.fetch(Resilience.GROUP, Resilience.class)
+            .defaultIfEmpty(Resilience.DEFAULT)
+            .subscribe(
+                value -> this.resilience = value,
+                e -> log.warn("Failed to load passkey resilience settings", e)
+            );
+    }
+
+    /**
+     * Settings of the audit log.
+     *
+     * @param retentionDays how many days audit events are kept
+     * @param trustedProxies addresses or CIDR ranges of reverse proxies whose
+     * {@code X-Forwarded-For} and {@code X-Real-IP} headers are believed, separated by commas or
+     * whitespace
+     */
+    public record Audit(Integer retentionDays, String trustedProxies) {
+        static final String GROUP = "audit";
+        static final Audit DEFAULT = new Audit(90, null);
+
+        public int retentionDaysOrDefault() {
+            return retentionDays != null && retentionDays > 0 ? retentionDays : 90;
+        }
+    }
+
+    /**
+     * Settings of request diagnostics.
+     *
+     * @param serverTiming whether ceremony endpoints emit a {@code Server-Timing} header
+     */
+    public record Observability(Boolean serverTiming) {
+        static final String GROUP = "observability";
+        static final Observability DEFAULT = new Observability(false);
+
+        public boolean serverTimingEnabled() {
+            return Boolean.TRUE.equals(serverTiming);
+        }
+    }
+
+    /**
+     * Settings of registration attestation verification.
+     *
+     * @param strict whether only attestations chaining up to a trust anchor are accepted
+     * @param trustAnchorDirectory directory holding FIDO metadata statements or PEM root
+     * certificates named after their AAGUID
+     */
+    public record Attestation(Boolean strict, String trustAnchorDirectory) {
+        static final String GROUP = "attestation";
+        static final Attestation DEFAULT = new Attestation(false, null);
+
+        public boolean strictEnabled() {
+            return Boolean.TRUE.equals(strict);
+        }
+    }
+
+    /**
+     * Settings of the background credential reconciler.
+     *
+     * @param orphanedCredentials what to do with credentials whose user no longer exists,
+     * {@code flag} or {@code delete}
+     * @param idleDays credentials not used for this many days are deleted, 0 disables expiry
+     */
+    public record Maintenance(String orphanedCredentials, Integer idleDays) {
+        static final String GROUP = "maintenance";
+        static final Maintenance DEFAULT = new Maintenance("flag", 0);
+
+        public boolean deleteOrphans() {
+            return "delete".equals(orphanedCredentials);
+        }
+
+        public int idleDaysOrDisabled() {
+            return idleDays != null && idleDays > 0 ? idleDays : 0;
+        }
+    }
+
+    /**
+     * Settings of optional caches on the sign-in path.
+     *
+     * @param cacheUserDetails whether resolved user details are cached for a short time
+     */
+    public record Performance(Boolean cacheUserDetails) {
+        static final String GROUP = "performance";
+        static final Performance DEFAULT = new Performance(false);
+
+        public boolean cacheUserDetailsEnabled() {
+            return Boolean.TRUE.equals(cacheUserDetails);
+        }
+    }
+
+    /**
+     * Settings of credential store access on the sign-in path.
+     *
+     * @param lookupTimeout milliseconds a credential lookup may take
+     * @param writeTimeout milliseconds a credential write may take
+     * @param failureRateThreshold percentage of failed store calls that opens the circuit
+     * breaker
+     * @param openSeconds how long the open breaker rejects store calls before probing again
+     */
+    public record Resilience(Integer lookupTimeout, Integer writeTimeout,
+                             Integer failureRateThreshold, Integer openSeconds) {
+        static final String GROUP = "resilience";
+        static final Resilience DEFAULT = new Resilience(2000, 5000, 50, 30);
+
+        public Duration lookupTimeoutOrDefault() {
+            return Duration.ofMillis(positiveOr(lookupTimeout, DEFAULT.lookupTimeout));
+        }
+
+        public Duration writeTimeoutOrDefault() {
+            return Duration.ofMillis(positiveOr(writeTimeout, DEFAULT.writeTimeout));
+        }
+
+        public float failureRateThresholdOrDefault() {
+            int threshold = positiveOr(failureRateThreshold, DEFAULT.failureRateThreshold);
+            return Math.min(threshold, 100);
+        }
+
+        public Duration openDurationOrDefault() {
+            return Duration.ofSeconds(positiveOr(openSeconds, DEFAULT.openSeconds));
+        }
+
+        private static int positiveOr(Integer value, int fallback) {
+            return value != null && value > 0 ? value : fallback;
+        }
+    }
+}
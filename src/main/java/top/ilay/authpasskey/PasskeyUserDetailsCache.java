@@ -0,0 +1,162 @@
+package top.ilay.authpasskey;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.Role;
+import run.halo.app.core.extension.RoleBinding;
+import run.halo.app.core.extension.User;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.event.PluginStartedEvent;
+
+/**
+ * Short-lived cache of the {@link UserDetails} resolved for passkey sign-ins, enabled in the
+ * performance settings.
+ *
+ * <p>Resolving user details loads the user, their role bindings and authorities. An entry is
+ * invalidated as soon as the {@link User} changes or one of their {@link RoleBinding}s is added,
+ * changed or removed, and all entries are when a {@link Role} changes, so disabling a user or
+ * revoking a role takes effect on the next sign-in. A stale entry here signs a disabled user in
+ * or grants a revoked role, which is why it expires after only {@link #TTL} even if an event is
+ * missed, and why the cache can be turned off.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+public class PasskeyUserDetailsCache implements DisposableBean {
+
+    static final int MAXIMUM_SIZE = 1024;
+    static final Duration TTL = Duration.ofMinutes(1);
+
+    private static final String USER_SUBJECT_KIND = "User";
+
+    private final ReactiveExtensionClient extensionClient;
+    private final ReactiveUserDetailsService userDetailsService;
+    private final PasskeySettings settings;
+
+    private final AsyncCache<String, UserDetails> userDetails = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .expireAfterWrite(TTL)
+        .buildAsync();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final InvalidatingWatcher watcher =
+        new InvalidatingWatcher(this::onAdd, this::onUpdate, this::onDelete);
+
+    public PasskeyUserDetailsCache(ReactiveExtensionClient extensionClient,
+        ReactiveUserDetailsService userDetailsService, PasskeySettings settings) {
+        this.extensionClient = extensionClient;
+        this.userDetailsService = userDetailsService;
+        this.settings = settings;
+    }
+
+    @EventListener(PluginStartedEvent.class)
+    public void onPluginStarted() {
+        watcher.watch(extensionClient);
+    }
+
+    @Override
+    public void destroy() {
+        watcher.dispose();
+    }
+
+    /**
+     * The user details of the given user, from the cache when enabled.
+     */
+    public Mono<UserDetails> findByUsername(String username) {
+        if (!settings.performance().cacheUserDetailsEnabled()) {
+            return userDetailsService.findByUsername(username);
+        }
+        return Mono.fromFuture(() -> {
+            var cached = userDetails.getIfPresent(username);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            // An unknown user completes with null, which is not cached
+            return userDetails.get(username, (key, executor) -> {
+                misses.increment();
+                return userDetailsService.findByUsername(key).toFuture();
+            });
+        });
+    }
+
+    public Stats stats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long requests = hitCount + missCount;
+        return new Stats(settings.performance().cacheUserDetailsEnabled(),
+            userDetails.synchronous().estimatedSize(), hitCount, missCount,
+            requests == 0 ? 0 : (double) hitCount / requests, invalidations.sum());
+    }
+
+    private void onAdd(Extension extension) {
+        if (extension instanceof RoleBinding roleBinding) {
+            invalidate(roleBinding);
+        }
+    }
+
+    private void onUpdate(Extension oldExtension, Extension newExtension) {
+        if (oldExtension instanceof User oldUser && newExtension instanceof User newUser) {
+            // Sign-ins and profile views update the status, only the spec feeds user details
+            if (!Objects.equals(oldUser.getSpec(), newUser.getSpec())
+                || !Objects.equals(oldUser.getMetadata().getDeletionTimestamp(),
+                newUser.getMetadata().getDeletionTimestamp())) {
+                invalidate(newUser.getMetadata().getName());
+            }
+        } else if (oldExtension instanceof RoleBinding oldBinding
+            && newExtension instanceof RoleBinding newBinding) {
+            invalidate(oldBinding);
+            invalidate(newBinding);
+        } else if (newExtension instanceof Role) {
+            invalidateAll();
+        }
+    }
+
+    private void onDelete(Extension extension) {
+        if (extension instanceof User user) {
+            invalidate(user.getMetadata().getName());
+        } else if (extension instanceof RoleBinding roleBinding) {
+            invalidate(roleBinding);
+        } else if (extension instanceof Role) {
+            invalidateAll();
+        }
+    }
+
+    private void invalidate(RoleBinding roleBinding) {
+        if (roleBinding.getSubjects() == null) {
+            return;
+        }
+        for (RoleBinding.Subject subject : roleBinding.getSubjects()) {
+            if (USER_SUBJECT_KIND.equals(subject.getKind())) {
+                invalidate(subject.getName());
+            }
+        }
+    }
+
+    private void invalidate(String username) {
+        if (username != null) {
+            invalidations.increment();
+            userDetails.synchronous().invalidate(username);
+        }
+    }
+
+    private void invalidateAll() {
+        invalidations.increment();
+        userDetails.synchronous().invalidateAll();
+    }
+
+    public record Stats(boolean enabled, long size, long hits, long misses, double hitRatio,
+                        long invalidations) {}
+}
@@ -0,0 +1,96 @@
+package top.ilay.authpasskey;
+
+import java.util.ArrayList;
+import java.util.List;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+/**
+ * Collects the durations of the phases of a single request and renders them as a
+ * {@code Server-Timing} header value.
+ *
+ * <p>The recorder travels in the Reactor context under {@link #CONTEXT_KEY}. When the context
+ * carries no recorder, {@link #NOOP} is used and nothing is measured.</p>
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+class ServerTiming {
+
+    static final String HEADER = "Server-Timing";
+    static final String CONTEXT_KEY = ServerTiming.class.getName();
+
+    static final String CHALLENGE = "challenge";
+    static final String CREDENTIAL = "credential";
+    static final String USER = "user";
+    static final String VERIFY = "verify";
+    static final String COUNTER = "counter";
+    static final String SESSION = "session";
+    static final String TOTAL = "total";
+
+    static final ServerTiming NOOP = new ServerTiming() {
+        @Override
+        void record(String metric, long startNanos) {
+        }
+    };
+
+    private final List<Metric> metrics = new ArrayList<>(8);
+
+    static ServerTiming from(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, NOOP);
+    }
+
+    /**
+     * Measure the time from subscription to termination of the given publisher.
+     */
+    static <T> Mono<T> timed(String metric, Mono<T> source) {
+        return Mono.deferContextual(context -> {
+            var timing = from(context);
+            if (timing == NOOP) {
+                return source;
+            }
+            long start = System.nanoTime();
+            return source.doFinally(signal -> timing.record(metric, start));
+        });
+    }
+
+    /**
+     * Record a phase that started at {@code startNanos} and ends now. Repeated phases are summed.
+     */
+    void record(String metric, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        synchronized (metrics) {
+            for (int i = 0; i < metrics.size(); i++) {
+                var existing = metrics.get(i);
+                if (existing.name().equals(metric)) {
+                    metrics.set(i, new Metric(metric, existing.nanos() + duration));
+                    return;
+                }
+            }
+            metrics.add(new Metric(metric, duration));
+        }
+    }
+
+    String toHeaderValue() {
+        var builder = new StringBuilder(64);
+        synchronized (metrics) {
+            for (var metric : metrics) {
+                if (!builder.isEmpty()) {
+                    builder.append(", ");
+                }
+                // Milliseconds with two decimals, formatted by hand to avoid String.format.
+                long hundredths = metric.nanos() / 10_000;
+                long fraction = hundredths % 100;
+                builder.append(metric.name())
+                    .append(";dur=")
+                    .append(hundredths / 100)
+                    .append('.')
+                    .append(fraction < 10 ? "0" : "")
+                    .append(fraction);
+            }
+        }
+        return builder.toString();
+    }
+
+    record Metric(String name, long nanos) {}
+}
@@ -0,0 +1,40 @@
+package top.ilay.authpasskey;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adds a {@code Server-Timing} header to the ceremony endpoints when enabled in the settings.
+ *
+ * @author ilay
+ * @since 1.1.0
+ */
+@Component
+@RequiredArgsConstructor
+public class ServerTimingFilter implements HandlerFilterFunction<ServerResponse, ServerResponse> {
+
+    private final PasskeySettings settings;
+
+    @Override
+    public Mono<ServerResponse> filter(ServerRequest request,
+        HandlerFunction<ServerResponse> next) {
+        if (!settings.observability().serverTimingEnabled()) {
+            return next.handle(request);
+        }
+        var timing = new ServerTiming();
+        long start = System.nanoTime();
+        var response = request.exchange().getResponse();
+        response.beforeCommit(() -> {
+            timing.record(ServerTiming.TOTAL, start);
+            response.getHeaders().add(ServerTiming.HEADER, timing.toHeaderValue());
+            return Mono.empty();
+        });
+        return next.handle(request)
+            .contextWrite(context -> context.put(ServerTiming.CONTEXT_KEY, timing));
+    }
+}
@@ -15,9 +15,9 @@ import com.webauthn4j.data.client.Origin;
 import com.webauthn4j.data.client.challenge.Challenge;
 import com.webauthn4j.data.client.challenge.DefaultChallenge;
 import com.webauthn4j.server.ServerProperty;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.Base64;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,12 +40,16 @@ import reactor.core.publisher.Mono;
 public class WebAuthnService {
 
     private final PasskeyCredentialService credentialService;
+    private final AttestationPolicy attestationPolicy;
+    private final CredentialIdFilter credentialIdFilter;
+    private final CredentialDescriptorCache descriptorCache;
 
     private final WebAuthnManager webAuthnManager = WebAuthnManager.createNonStrictWebAuthnManager();
     private final ObjectConverter objectConverter = new ObjectConverter();
     private final AttestedCredentialDataConverter attestedCredentialDataConverter =
         new AttestedCredentialDataConverter(objectConverter);
     private final SecureRandom secureRandom = new SecureRandom();
+    private final PasskeyOptionsEncoder optionsEncoder = new PasskeyOptionsEncoder();
 
     // Temporary storage for challenges (in production, use a distributed cache like Redis)
     private final Map<String, ChallengeData> challengeStore = new ConcurrentHashMap<>();
@@ -70,61 +74,51 @@ public class WebAuthnService {
     }
 
     /**
-     * Generate registration options for a user.
+     * Generate registration options for a user, encoded as JSON.
      */
-    public Mono<RegistrationOptions> generateRegistrationOptions(String username, String displayName, String origin) {
-        return credentialService.findByUsername(username)
-            .map(cred -> cred.getSpec().getCredentialId())
-            .collectList()
-            .map(excludeCredentialIds -> {
+    public Mono<byte[]> generateRegistrationOptions(String username, String displayName, String origin) {
+        return ServerTiming.timed(ServerTiming.CREDENTIAL, descriptorCache.get(username))
+            .map(excludeCredentials -> {
                 String rpId = extractRpId(origin);
 
                 byte[] challengeBytes = new byte[32];
                 secureRandom.nextBytes(challengeBytes);
-                String challengeBase64 = Base64.getUrlEncoder().withoutPadding().encodeToString(challengeBytes);
 
                 byte[] userIdBytes = new byte[32];
                 secureRandom.nextBytes(userIdBytes);
-                String userIdBase64 = Base64.getUrlEncoder().withoutPadding().encodeToString(userIdBytes);
-
-                String rpName = "Halo";
 
                 // Store challenge for verification
                 challengeStore.put(username, new ChallengeData(challengeBytes, userIdBytes, System.currentTimeMillis()));
 
-                return new RegistrationOptions(
-                    challengeBase64,
-                    new RelyingParty(rpId, rpName),
-                    new User(userIdBase64, username, displayName != null ? displayName : username),
-                    excludeCredentialIds,
-                    new AuthenticatorSelection(
-                        null,  // Allow both platform and cross-platform authenticators
-                        "preferred",
-                        "preferred"
-                    ),
-                    60000L,
-                    List.of(
-                        new PublicKeyCredentialParameters("public-key", -7),  // ES256
-                        new PublicKeyCredentialParameters("public-key", -257) // RS256
-                    )
+                return optionsEncoder.registration(
+                    rpId,
+                    attestationPolicy.conveyancePreference(),
+                    Base64.getUrlEncoder().withoutPadding().encode(challengeBytes),
+                    Base64.getUrlEncoder().withoutPadding().encode(userIdBytes),
+                    username,
+                    displayName != null ? displayName : username,
+                    excludeCredentials
                 );
             });
     }
 
     /**
-     * Verify registration response and save credential.
+     * Verify registration response given as raw bytes and save credential.
      */
     public Mono<PasskeyCredential> verifyRegistration(
         String username,
-        String credentialId,
-        String attestationObject,
-        String clientDataJSON,
+        byte[] credentialIdBytes,
+        byte[] attestationObjectBytes,
+        byte[] clientDataJSONBytes,
         List<String> transports,
         String displayName,
         String origin
     ) {
-        return Mono.fromCallable(() -> {
+        return Mono.deferContextual(context -> Mono.fromCallable(() -> {
+            var timing = ServerTiming.from(context);
+            long challengeStart = System.nanoTime();
             ChallengeData challengeData = challengeStore.remove(username);
+            timing.record(ServerTiming.CHALLENGE, challengeStart);
             if (challengeData == null) {
                 throw new IllegalStateException("未找到用户的挑战信息: " + username);
             }
@@ -138,10 +132,6 @@ public class WebAuthnService {
             Origin webAuthnOrigin = new Origin(originStr);
             Challenge challenge = new DefaultChallenge(challengeData.challenge());
 
-            byte[] credentialIdBytes = Base64.getUrlDecoder().decode(credentialId);
-            byte[] attestationObjectBytes = Base64.getUrlDecoder().decode(attestationObject);
-            byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(clientDataJSON);
-
             RegistrationRequest registrationRequest = new RegistrationRequest(
                 attestationObjectBytes,
                 clientDataJSONBytes,
@@ -156,8 +146,11 @@ public class WebAuthnService {
                 true
             );
 
-            RegistrationData registrationData = webAuthnManager.parse(registrationRequest);
-            webAuthnManager.verify(registrationData, registrationParameters);
+            long verifyStart = System.nanoTime();
+            WebAuthnManager registrationManager = attestationPolicy.registrationManager();
+            RegistrationData registrationData = registrationManager.parse(registrationRequest);
+            registrationManager.verify(registrationData, registrationParameters);
+            timing.record(ServerTiming.VERIFY, verifyStart);
 
             AttestedCredentialData attestedCredentialData = registrationData
                 .getAttestationObject()
@@ -201,20 +194,20 @@ public class WebAuthnService {
                 backedUp,
                 transports
             );
-        }).flatMap(credentialService::save);
+        })).flatMap(credential ->
+            ServerTiming.timed(ServerTiming.CREDENTIAL, credentialService.save(credential)));
     }
 
     /**
-     * Generate authentication options.
+     * Generate authentication options, encoded as JSON.
      */
-    public Mono<AuthenticationOptions> generateAuthenticationOptions(String username, String origin) {
-        Mono<List<String>> allowCredentialsMono;
+    public Mono<byte[]> generateAuthenticationOptions(String username, String origin) {
+        Mono<byte[]> allowCredentialsMono;
         if (username != null && !username.isEmpty()) {
-            allowCredentialsMono = credentialService.findByUsername(username)
-                .map(cred -> cred.getSpec().getCredentialId())
-                .collectList();
+            allowCredentialsMono = ServerTiming.timed(ServerTiming.CREDENTIAL,
+                descriptorCache.get(username));
         } else {
-            allowCredentialsMono = Mono.just(Collections.emptyList());
+            allowCredentialsMono = Mono.just(PasskeyOptionsEncoder.NO_DESCRIPTORS);
         }
 
         return allowCredentialsMono.map(allowCredentials -> {
@@ -222,101 +215,123 @@ public class WebAuthnService {
 
             byte[] challengeBytes = new byte[32];
             secureRandom.nextBytes(challengeBytes);
-            String challengeBase64 = Base64.getUrlEncoder().withoutPadding().encodeToString(challengeBytes);
 
             String sessionId = Base64.getUrlEncoder().withoutPadding()
                 .encodeToString(UUID.randomUUID().toString().getBytes());
 
             challengeStore.put(sessionId, new ChallengeData(challengeBytes, null, System.currentTimeMillis()));
 
-            return new AuthenticationOptions(
-                challengeBase64,
+            return optionsEncoder.authentication(
                 rpId,
-                60000L,
+                Base64.getUrlEncoder().withoutPadding().encode(challengeBytes),
                 allowCredentials,
-                "preferred",
-                sessionId
+                sessionId.getBytes(StandardCharsets.US_ASCII)
             );
         });
     }
 
     /**
-     * Verify authentication response.
+     * Load the credential an assertion claims to be made with.
      */
-    public Mono<PasskeyCredential> verifyAuthentication(
+    public Mono<PasskeyCredential> findCredential(String credentialId) {
+        if (!credentialIdFilter.mightContain(credentialId)) {
+            return Mono.error(new IllegalStateException("凭证不存在"));
+        }
+        return ServerTiming.timed(ServerTiming.CREDENTIAL,
+                credentialService.findByCredentialId(credentialId))
+            .switchIfEmpty(Mono.defer(() -> {
+                credentialIdFilter.recordFalsePositive();
+                return Mono.error(new IllegalStateException("凭证不存在"));
+            }));
+    }
+
+    /**
+     * Consume the challenge of the session and verify the assertion, given as raw bytes,
+     * against the stored credential. Emits the signature counter reported by the authenticator.
+     *
+     * <p>Verification runs on the subscribing thread, so work that should overlap with it must
+     * be subscribed to first.</p>
+     */
+    public Mono<Long> verifyAssertion(
+        PasskeyCredential credential,
         String sessionId,
-        String credentialId,
-        String authenticatorData,
-        String clientDataJSON,
-        String signature,
-        String userHandle,
+        byte[] authenticatorDataBytes,
+        byte[] clientDataJSONBytes,
+        byte[] signatureBytes,
+        byte[] userHandleBytes,
         String origin
     ) {
-        return credentialService.findByCredentialId(credentialId)
-            .switchIfEmpty(Mono.error(new IllegalStateException("凭证不存在")))
-            .flatMap(credential -> Mono.fromCallable(() -> {
-                ChallengeData challengeData = challengeStore.remove(sessionId);
-                if (challengeData == null) {
-                    throw new IllegalStateException("会话挑战信息不存在");
-                }
-
-                if (System.currentTimeMillis() - challengeData.createdAt() > 120000) {
-                    throw new IllegalStateException("挑战已过期");
-                }
+        String credentialId = credential.getSpec().getCredentialId();
+        return Mono.deferContextual(context -> Mono.fromCallable(() -> {
+            var timing = ServerTiming.from(context);
+            long challengeStart = System.nanoTime();
+            ChallengeData challengeData = challengeStore.remove(sessionId);
+            timing.record(ServerTiming.CHALLENGE, challengeStart);
+            if (challengeData == null) {
+                throw new IllegalStateException("会话挑战信息不存在");
+            }
 
-                String rpId = extractRpId(origin);
-                String originStr = origin.replaceAll("/$", "");
-                Origin webAuthnOrigin = new Origin(originStr);
-                Challenge challenge = new DefaultChallenge(challengeData.challenge());
-
-                byte[] credentialIdBytes = Base64.getUrlDecoder().decode(credentialId);
-                byte[] authenticatorDataBytes = Base64.getUrlDecoder().decode(authenticatorData);
-                byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(clientDataJSON);
-                byte[] signatureBytes = Base64.getUrlDecoder().decode(signature);
-                byte[] userHandleBytes = userHandle != null ? Base64.getUrlDecoder().decode(userHandle) : null;
-
-                // Deserialize the stored attested credential data
-                byte[] storedPublicKeyBytes = Base64.getUrlDecoder().decode(credential.getSpec().getPublicKey());
-                AttestedCredentialData attestedCredentialData =
-                    attestedCredentialDataConverter.convert(storedPublicKeyBytes);
-
-                AuthenticationRequest authenticationRequest = new AuthenticationRequest(
-                    credentialIdBytes,
-                    userHandleBytes,
-                    authenticatorDataBytes,
-                    clientDataJSONBytes,
-                    null,
-                    signatureBytes
-                );
+            if (System.currentTimeMillis() - challengeData.createdAt() > 120000) {
+                throw new IllegalStateException("挑战已过期");
+            }
 
-                CredentialRecordImpl credentialRecord = new CredentialRecordImpl(
-                    null,  // attestationStatement
-                    credential.getSpec().isUserVerified(),  // uvInitialized
-                    credential.getSpec().isBackupEligible(),  // backupEligible
-                    credential.getSpec().isBackedUp(),  // backupState
-                    credential.getSpec().getSignatureCount(),  // counter
-                    attestedCredentialData,
-                    null,  // authenticatorExtensions
-                    null,  // clientData
-                    null,  // clientExtensions
-                    null   // transports
-                );
+            String rpId = extractRpId(origin);
+            String originStr = origin.replaceAll("/$", "");
+            Origin webAuthnOrigin = new Origin(originStr);
+            Challenge challenge = new DefaultChallenge(challengeData.challenge());
 
-                AuthenticationParameters authenticationParameters = new AuthenticationParameters(
-                    new ServerProperty(webAuthnOrigin, rpId, challenge, null),
-                    credentialRecord,
-                    List.of(credentialIdBytes),
-                    false,
-                    false
-                );
+            byte[] credentialIdBytes = Base64.getUrlDecoder().decode(credentialId);
 
-                AuthenticationData authenticationData = webAuthnManager.parse(authenticationRequest);
-                webAuthnManager.verify(authenticationData, authenticationParameters);
+            // Deserialize the stored attested credential data
+            byte[] storedPublicKeyBytes = Base64.getUrlDecoder().decode(credential.getSpec().getPublicKey());
+            AttestedCredentialData attestedCredentialData =
+                attestedCredentialDataConverter.convert(storedPublicKeyBytes);
 
-                return authenticationData.getAuthenticatorData().getSignCount();
-            }).flatMap(newSignCount ->
-                credentialService.updateSignatureCount(credentialId, newSignCount)
-            ));
+            AuthenticationRequest authenticationRequest = new AuthenticationRequest(
+                credentialIdBytes,
+                userHandleBytes,
+                authenticatorDataBytes,
+                clientDataJSONBytes,
+                null,
+                signatureBytes
+            );
+
+            CredentialRecordImpl credentialRecord = new CredentialRecordImpl(
+                null,  // attestationStatement
+                credential.getSpec().isUserVerified(),  // uvInitialized
+                credential.getSpec().isBackupEligible(),  // backupEligible
+                credential.getSpec().isBackedUp(),  // backupState
+                credential.getSpec().getSignatureCount(),  // counter
+                attestedCredentialData,
+                null,  // authenticatorExtensions
+                null,  // clientData
+                null,  // clientExtensions
+                null   // transports
+            );
+
+            AuthenticationParameters authenticationParameters = new AuthenticationParameters(
+                new ServerProperty(webAuthnOrigin, rpId, challenge, null),
+                credentialRecord,
+                List.of(credentialIdBytes),
+                false,
+                false
+            );
+
+            long verifyStart = System.nanoTime();
+            AuthenticationData authenticationData = webAuthnManager.parse(authenticationRequest);
+            webAuthnManager.verify(authenticationData, authenticationParameters);
+            timing.record(ServerTiming.VERIFY, verifyStart);
+
+            return authenticationData.getAuthenticatorData().getSignCount();
+        }));
+    }
+
+    /**
+     * Persist the new signature counter and the time of use.
+     */
+    public Mono<PasskeyCredential> recordSignIn(PasskeyCredential credential, long newSignCount) {
+        return ServerTiming.timed(ServerTiming.COUNTER,
+            credentialService.updateSignatureCount(credential, newSignCount));
     }
 
     /**
@@ -329,36 +344,12 @@ public class WebAuthnService {
         );
     }
 
-    record ChallengeData(byte[] challenge, byte[] userId, long createdAt) {}
+    /**
+     * The number of issued challenges not yet consumed or cleaned up.
+     */
+    int pendingChallenges() {
+        return challengeStore.size();
+    }
 
-    public record RegistrationOptions(
-        String challenge,
-        RelyingParty rp,
-        User user,
-        List<String> excludeCredentials,
-        AuthenticatorSelection authenticatorSelection,
-        Long timeout,
-        List<PublicKeyCredentialParameters> pubKeyCredParams
-    ) {}
-
-    public record RelyingParty(String id, String name) {}
-
-    public record User(String id, String name, String displayName) {}
-
-    public record AuthenticatorSelection(
-        String authenticatorAttachment,
-        String residentKey,
-        String userVerification
-    ) {}
-
-    public record PublicKeyCredentialParameters(String type, int alg) {}
-
-    public record AuthenticationOptions(
-        String challenge,
-        String rpId,
-        Long timeout,
-        List<String> allowCredentials,
-        String userVerification,
-        String sessionId
-    ) {}
+    record ChallengeData(byte[] challenge, byte[] userId, long createdAt) {}
 }
@@ -0,0 +1,90 @@
+package top.ilay.authpasskey;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.webauthn4j.WebAuthnManager;
+import com.webauthn4j.data.attestation.authenticator.AAGUID;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Registration verification cost in non-strict and strict attestation mode.
+ *
+ * <p>Excluded from the regular test run, use {@code gradle benchmark} to run it.</p>
+ */
+@Tag("benchmark")
+class AttestationBenchmarkTest {
+
+    static final int WARMUP = 200;
+    static final int ITERATIONS = 1000;
+
+    @TempDir
+    Path trustAnchors;
+
+    @Test
+    void registration() throws Exception {
+        var ca = EmulatedAuthenticator.AttestationCa.create(new AAGUID(UUID.randomUUID()));
+        Files.writeString(trustAnchors.resolve("model.json"), """
+            {"aaguid": "%s", "attestationRootCertificates": ["%s"]}
+            """.formatted(ca.aaguid(),
+            Base64.getEncoder().encodeToString(ca.rootCertificate().getEncoded())));
+        var strict = new PasskeySettings.Attestation(true, trustAnchors.toString());
+
+        var nonStrictAuthenticators = authenticators(EmulatedAuthenticator::create);
+        var strictAuthenticators = authenticators(ca::newAuthenticator);
+
+        report("non-strict", policy(PasskeySettings.Attestation.DEFAULT).registrationManager(),
+            nonStrictAuthenticators);
+        // A fresh policy per registration never hits the certificate path cache
+        report("strict, uncached", null, strictAuthenticators, () -> policy(strict));
+        report("strict, cached", policy(strict).registrationManager(), strictAuthenticators);
+    }
+
+    private static void report(String name, WebAuthnManager manager,
+        List<EmulatedAuthenticator> authenticators) {
+        report(name, manager, authenticators, null);
+    }
+
+    private static void report(String name, WebAuthnManager manager,
+        List<EmulatedAuthenticator> authenticators, Supplier<AttestationPolicy> perRegistration) {
+        for (int i = 0; i < WARMUP; i++) {
+            register(manager, authenticators.get(i), perRegistration);
+        }
+        long elapsed = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            var authenticator = authenticators.get(i % authenticators.size());
+            elapsed += register(manager, authenticator, perRegistration);
+        }
+        System.out.printf("%-18s %,10d ns/op%n", name, elapsed / ITERATIONS);
+    }
+
+    private static long register(WebAuthnManager manager, EmulatedAuthenticator authenticator,
+        Supplier<AttestationPolicy> perRegistration) {
+        if (perRegistration != null) {
+            manager = perRegistration.get().registrationManager();
+        }
+        long start = System.nanoTime();
+        AttestationPolicyTest.register(manager, authenticator);
+        return System.nanoTime() - start;
+    }
+
+    private static List<EmulatedAuthenticator> authenticators(
+        Supplier<EmulatedAuthenticator> factory) {
+        return Stream.generate(factory).limit(WARMUP).toList();
+    }
+
+    private static AttestationPolicy policy(PasskeySettings.Attestation attestation) {
+        var settings = mock(PasskeySettings.class);
+        when(settings.attestation()).thenReturn(attestation);
+        return new AttestationPolicy(settings);
+    }
+}
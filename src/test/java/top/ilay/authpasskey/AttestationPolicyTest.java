@@ -0,0 +1,126 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.webauthn4j.WebAuthnManager;
+import com.webauthn4j.data.RegistrationParameters;
+import com.webauthn4j.data.RegistrationRequest;
+import com.webauthn4j.data.attestation.authenticator.AAGUID;
+import com.webauthn4j.data.client.Origin;
+import com.webauthn4j.data.client.challenge.DefaultChallenge;
+import com.webauthn4j.server.ServerProperty;
+import com.webauthn4j.verifier.exception.VerificationException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AttestationPolicyTest {
+
+    static final String RP_ID = "localhost";
+    static final String ORIGIN = "http://localhost:8090";
+
+    @TempDir
+    Path trustAnchors;
+
+    PasskeySettings settings;
+    AttestationPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        settings = mock(PasskeySettings.class);
+        policy = new AttestationPolicy(settings);
+    }
+
+    @Test
+    void nonStrictAcceptsNoneAttestation() {
+        when(settings.attestation()).thenReturn(PasskeySettings.Attestation.DEFAULT);
+
+        assertEquals("none", policy.conveyancePreference());
+        assertDoesNotThrow(() -> register(policy.registrationManager(),
+            EmulatedAuthenticator.create()));
+    }
+
+    @Test
+    void strictRejectsNoneAttestation() {
+        strict();
+
+        assertEquals("direct", policy.conveyancePreference());
+        assertThrows(VerificationException.class,
+            () -> register(policy.registrationManager(), EmulatedAuthenticator.create()));
+    }
+
+    @Test
+    void strictAcceptsAttestationFromMetadataStatementAndCachesChain() throws Exception {
+        var ca = EmulatedAuthenticator.AttestationCa.create(new AAGUID(UUID.randomUUID()));
+        Files.writeString(trustAnchors.resolve("model.json"), """
+            {"aaguid": "%s", "attestationRootCertificates": ["%s"]}
+            """.formatted(ca.aaguid(),
+            Base64.getEncoder().encodeToString(ca.rootCertificate().getEncoded())));
+        strict();
+
+        var manager = policy.registrationManager();
+        assertSame(manager, policy.registrationManager());
+        register(manager, ca.newAuthenticator());
+        register(manager, ca.newAuthenticator());
+        register(manager, ca.newAuthenticator());
+
+        var stats = policy.stats();
+        assertEquals(1, stats.trustAnchorEntries());
+        assertEquals(1, stats.certPathCacheMisses());
+        assertEquals(2, stats.certPathCacheHits());
+    }
+
+    @Test
+    void strictAcceptsAttestationFromPemNamedAfterAaguid() throws Exception {
+        var ca = EmulatedAuthenticator.AttestationCa.create(new AAGUID(UUID.randomUUID()));
+        Files.writeString(trustAnchors.resolve(ca.aaguid() + ".pem"), toPem(ca));
+        strict();
+
+        assertDoesNotThrow(() -> register(policy.registrationManager(), ca.newAuthenticator()));
+    }
+
+    @Test
+    void strictRejectsUnknownRoot() throws Exception {
+        var trusted = EmulatedAuthenticator.AttestationCa.create(new AAGUID(UUID.randomUUID()));
+        var untrusted = EmulatedAuthenticator.AttestationCa.create(trusted.aaguid());
+        Files.writeString(trustAnchors.resolve(trusted.aaguid() + ".pem"), toPem(trusted));
+        strict();
+
+        assertThrows(VerificationException.class,
+            () -> register(policy.registrationManager(), untrusted.newAuthenticator()));
+        assertEquals(0, policy.stats().certPathCacheHits());
+    }
+
+    private void strict() {
+        when(settings.attestation())
+            .thenReturn(new PasskeySettings.Attestation(true, trustAnchors.toString()));
+    }
+
+    static void register(WebAuthnManager manager, EmulatedAuthenticator authenticator) {
+        byte[] challenge = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        var registration = authenticator.register(RP_ID, ORIGIN, challenge);
+        var request = new RegistrationRequest(registration.attestationObject(),
+            registration.clientDataJSON(), null, Set.of());
+        var parameters = new RegistrationParameters(
+            new ServerProperty(new Origin(ORIGIN), RP_ID, new DefaultChallenge(challenge), null),
+            null, false, true);
+        manager.verify(manager.parse(request), parameters);
+    }
+
+    private static String toPem(EmulatedAuthenticator.AttestationCa ca) throws Exception {
+        return "-----BEGIN CERTIFICATE-----\n"
+            + Base64.getMimeEncoder().encodeToString(ca.rootCertificate().getEncoded())
+            + "\n-----END CERTIFICATE-----\n";
+    }
+}
@@ -11,6 +11,7 @@ import run.halo.app.plugin.PluginContext;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,12 +33,14 @@ class AuthPasskeyPluginTest {
     @Test
     void contextLoads() {
         doNothing().when(schemeManager).register(eq(PasskeyCredential.class), any());
+        doNothing().when(schemeManager).register(eq(PasskeyAuditEvent.class), any());
         doNothing().when(schemeManager).unregister(any());
 
         plugin.start();
         plugin.stop();
 
         verify(schemeManager).register(eq(PasskeyCredential.class), any());
-        verify(schemeManager).unregister(any());
+        verify(schemeManager).register(eq(PasskeyAuditEvent.class), any());
+        verify(schemeManager, times(2)).unregister(any());
     }
 }
@@ -0,0 +1,77 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BoundedRingBufferTest {
+
+    @Test
+    void rejectsOffersWhenFull() {
+        var buffer = new BoundedRingBuffer<Integer>(3);
+        assertEquals(4, buffer.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(drained, 10));
+        assertEquals(List.of(1, 2, 3, 4), drained);
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void concurrentProducersNeitherLoseNorDuplicateElements() throws Exception {
+        var buffer = new BoundedRingBuffer<Integer>(1024);
+        int producers = 4;
+        int perProducer = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        var start = new CountDownLatch(1);
+        var rejected = new AtomicInteger();
+        Set<Integer> consumed = ConcurrentHashMap.newKeySet();
+        try {
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        if (!buffer.offer(base + i)) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS) || !buffer.isEmpty()) {
+                Integer element;
+                while ((element = buffer.poll()) != null) {
+                    assertTrue(consumed.add(element), "Duplicated element " + element);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(producers * perProducer, consumed.size() + rejected.get());
+    }
+}
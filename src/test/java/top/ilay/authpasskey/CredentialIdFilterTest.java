@@ -0,0 +1,112 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import run.halo.app.extension.Metadata;
+
+class CredentialIdFilterTest {
+
+    InMemoryExtensionClient client;
+    CredentialIdFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        client = new InMemoryExtensionClient();
+        filter = new CredentialIdFilter(client);
+    }
+
+    @AfterEach
+    void tearDown() {
+        filter.destroy();
+    }
+
+    @Test
+    void rebuildsFromStoreOnStartup() {
+        credential("cred-1");
+        credential("cred-2");
+        // Everything is let through until the filter has been built
+        assertTrue(filter.mightContain("unknown"));
+        assertFalse(filter.stats().ready());
+
+        filter.onPluginStarted();
+
+        assertTrue(filter.mightContain("cred-1"));
+        assertTrue(filter.mightContain("cred-2"));
+        assertFalse(filter.mightContain("unknown"));
+        var stats = filter.stats();
+        assertTrue(stats.ready());
+        assertEquals(2, stats.entries());
+        assertEquals(1, stats.rejected());
+    }
+
+    @Test
+    void tracksAddedAndDeletedCredentials() {
+        filter.onPluginStarted();
+        assertFalse(filter.mightContain("cred-1"));
+
+        var credential = credential("cred-1");
+        assertTrue(filter.mightContain("cred-1"));
+
+        client.delete(credential).block();
+        assertFalse(filter.mightContain("cred-1"));
+        assertEquals(0, filter.stats().entries());
+    }
+
+    @Test
+    void stopsWatchingWhenDestroyed() {
+        filter.onPluginStarted();
+        filter.destroy();
+
+        credential("cred-1");
+
+        assertFalse(filter.mightContain("cred-1"));
+    }
+
+    @Test
+    void growsWhenFull() {
+        filter.onPluginStarted();
+        int count = CredentialIdFilter.MINIMUM_CAPACITY + 100;
+        IntStream.range(0, count).forEach(i -> credential("cred-" + i));
+
+        IntStream.range(0, count).forEach(i -> assertTrue(filter.mightContain("cred-" + i)));
+        assertTrue(filter.stats().capacity() > CredentialIdFilter.MINIMUM_CAPACITY);
+    }
+
+    @Test
+    void rejectsUnknownIdWithoutStoreQuery() {
+        credential("cred-1");
+        filter.onPluginStarted();
+        var credentialService = mock(PasskeyCredentialService.class);
+        var webAuthnService = new WebAuthnService(credentialService,
+            mock(AttestationPolicy.class), filter, mock(CredentialDescriptorCache.class));
+
+        var e = assertThrows(IllegalStateException.class,
+            () -> webAuthnService.findCredential("unknown").block());
+
+        assertEquals("凭证不存在", e.getMessage());
+        verify(credentialService, never()).findByCredentialId(anyString());
+    }
+
+    private PasskeyCredential credential(String id) {
+        var credential = new PasskeyCredential();
+        credential.setMetadata(new Metadata());
+        credential.getMetadata().setName(id);
+        credential.setSpec(new PasskeyCredential.PasskeyCredentialSpec());
+        credential.getSpec().setUsername("alice");
+        credential.getSpec().setCredentialId(id);
+        credential.getSpec().setCreatedAt(Instant.now());
+        return client.create(credential).block();
+    }
+}
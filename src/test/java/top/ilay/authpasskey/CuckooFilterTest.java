@@ -0,0 +1,67 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class CuckooFilterTest {
+
+    @Test
+    void hasNoFalseNegativesAndFewFalsePositives() {
+        var filter = new CuckooFilter(20_000);
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String item = UUID.randomUUID().toString();
+            items.add(item);
+            assertTrue(filter.add(item));
+        }
+        assertEquals(10_000, filter.size());
+        items.forEach(item -> assertTrue(filter.mightContain(item)));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain(UUID.randomUUID().toString())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void removesItems() {
+        var filter = new CuckooFilter(1024);
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String item = "credential-" + i;
+            items.add(item);
+            filter.add(item);
+        }
+        for (int i = 0; i < 250; i++) {
+            assertTrue(filter.remove(items.get(i)));
+        }
+        assertEquals(250, filter.size());
+        for (int i = 250; i < 500; i++) {
+            assertTrue(filter.mightContain(items.get(i)));
+        }
+        assertFalse(filter.remove("never-added"));
+    }
+
+    @Test
+    void keepsEveryItemWhenFull() {
+        var filter = new CuckooFilter(64);
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < 1000 && !filter.isFull(); i++) {
+            String item = UUID.randomUUID().toString();
+            assertTrue(filter.add(item));
+            added.add(item);
+        }
+        assertTrue(filter.isFull());
+        assertFalse(filter.add("one-more"));
+        added.forEach(item -> assertTrue(filter.mightContain(item)));
+    }
+}
@@ -0,0 +1,233 @@
+package top.ilay.authpasskey;
+
+import com.webauthn4j.converter.AttestationObjectConverter;
+import com.webauthn4j.converter.AuthenticatorDataConverter;
+import com.webauthn4j.converter.util.ObjectConverter;
+import com.webauthn4j.data.attestation.AttestationObject;
+import com.webauthn4j.data.attestation.authenticator.AAGUID;
+import com.webauthn4j.data.attestation.authenticator.AttestedCredentialData;
+import com.webauthn4j.data.attestation.authenticator.AuthenticatorData;
+import com.webauthn4j.data.attestation.authenticator.EC2COSEKey;
+import com.webauthn4j.data.attestation.statement.AttestationCertificatePath;
+import com.webauthn4j.data.attestation.statement.AttestationStatement;
+import com.webauthn4j.data.attestation.statement.COSEAlgorithmIdentifier;
+import com.webauthn4j.data.attestation.statement.NoneAttestationStatement;
+import com.webauthn4j.data.attestation.statement.PackedAttestationStatement;
+import com.webauthn4j.data.extension.authenticator.AuthenticationExtensionAuthenticatorOutput;
+import com.webauthn4j.data.extension.authenticator.RegistrationExtensionAuthenticatorOutput;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * A software authenticator producing real WebAuthn registration and assertion responses for
+ * tests, with either {@code none} or {@code packed} attestation.
+ */
+class EmulatedAuthenticator {
+
+    static final ObjectConverter OBJECT_CONVERTER = new ObjectConverter();
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final byte FLAG_UP = 0x01;
+    private static final byte FLAG_UV = 0x04;
+    private static final byte FLAG_AT = 0x40;
+
+    private final AAGUID aaguid;
+    private final KeyPair credentialKeyPair;
+    private final byte[] credentialId;
+    private final AttestationCa attestationCa;
+    private final AtomicLong counter = new AtomicLong();
+
+    EmulatedAuthenticator(AAGUID aaguid, AttestationCa attestationCa) {
+        this.aaguid = aaguid;
+        this.attestationCa = attestationCa;
+        this.credentialKeyPair = generateKeyPair();
+        this.credentialId = new byte[32];
+        RANDOM.nextBytes(credentialId);
+    }
+
+    /**
+     * An authenticator using {@code none} attestation.
+     */
+    static EmulatedAuthenticator create() {
+        return new EmulatedAuthenticator(new AAGUID(UUID.randomUUID()), null);
+    }
+
+    byte[] credentialId() {
+        return credentialId.clone();
+    }
+
+    String credentialIdBase64() {
+        return encode(credentialId);
+    }
+
+    long counter() {
+        return counter.get();
+    }
+
+    Registration register(String rpId, String origin, byte[] challenge) {
+        var attestedCredentialData = new AttestedCredentialData(aaguid, credentialId,
+            EC2COSEKey.create((ECPublicKey) credentialKeyPair.getPublic(),
+                COSEAlgorithmIdentifier.ES256));
+        var authenticatorData = new AuthenticatorData<RegistrationExtensionAuthenticatorOutput>(
+            sha256(rpId.getBytes(StandardCharsets.UTF_8)),
+            (byte) (FLAG_UP | FLAG_UV | FLAG_AT),
+            counter.get(),
+            attestedCredentialData);
+        byte[] authenticatorDataBytes =
+            new AuthenticatorDataConverter(OBJECT_CONVERTER).convert(authenticatorData);
+        byte[] clientDataJSON = clientData("webauthn.create", challenge, origin);
+
+        AttestationStatement statement;
+        if (attestationCa == null) {
+            statement = new NoneAttestationStatement();
+        } else {
+            byte[] signature = sign(attestationCa.attestationKey(),
+                concat(authenticatorDataBytes, sha256(clientDataJSON)));
+            statement = new PackedAttestationStatement(COSEAlgorithmIdentifier.ES256, signature,
+                new AttestationCertificatePath(List.of(attestationCa.attestationCertificate())));
+        }
+        byte[] attestationObject = new AttestationObjectConverter(OBJECT_CONVERTER)
+            .convertToBytes(new AttestationObject(authenticatorData, statement));
+        return new Registration(credentialId.clone(), attestationObject, clientDataJSON);
+    }
+
+    Assertion authenticate(String rpId, String origin, byte[] challenge) {
+        long signCount = counter.incrementAndGet();
+        var authenticatorData = new AuthenticatorData<AuthenticationExtensionAuthenticatorOutput>(
+            sha256(rpId.getBytes(StandardCharsets.UTF_8)),
+            (byte) (FLAG_UP | FLAG_UV),
+            signCount);
+        byte[] authenticatorDataBytes =
+            new AuthenticatorDataConverter(OBJECT_CONVERTER).convert(authenticatorData);
+        byte[] clientDataJSON = clientData("webauthn.get", challenge, origin);
+        byte[] signature = sign(credentialKeyPair.getPrivate(),
+            concat(authenticatorDataBytes, sha256(clientDataJSON)));
+        return new Assertion(credentialId.clone(), authenticatorDataBytes, clientDataJSON,
+            signature, signCount);
+    }
+
+    static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static byte[] clientData(String type, byte[] challenge, String origin) {
+        return ("{\"type\":\"" + type + "\",\"challenge\":\"" + encode(challenge)
+            + "\",\"origin\":\"" + origin + "\",\"crossOrigin\":false}")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static KeyPair generateKeyPair() {
+        try {
+            var generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"), RANDOM);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] sign(PrivateKey key, byte[] data) {
+        try {
+            var signature = Signature.getInstance("SHA256withECDSA");
+            signature.initSign(key);
+            signature.update(data);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    record Registration(byte[] credentialId, byte[] attestationObject, byte[] clientDataJSON) {}
+
+    record Assertion(byte[] credentialId, byte[] authenticatorData, byte[] clientDataJSON,
+                     byte[] signature, long counter) {}
+
+    /**
+     * A root CA and an attestation certificate issued by it for one authenticator model.
+     */
+    record AttestationCa(AAGUID aaguid, X509Certificate rootCertificate,
+                         X509Certificate attestationCertificate, PrivateKey attestationKey) {
+
+        static AttestationCa create(AAGUID aaguid) {
+            try {
+                var rootKeyPair = generateKeyPair();
+                var attestationKeyPair = generateKeyPair();
+                var rootName = new X500Name("C=CN,O=Passkey Test,OU=Root,CN=Passkey Test Root");
+                var now = Instant.now();
+                var notBefore = Date.from(now.minus(Duration.ofDays(1)));
+                var notAfter = Date.from(now.plus(Duration.ofDays(365)));
+                var converter = new JcaX509CertificateConverter();
+
+                var rootBuilder = new JcaX509v3CertificateBuilder(rootName,
+                    BigInteger.ONE, notBefore, notAfter, rootName, rootKeyPair.getPublic())
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(true))
+                    .addExtension(Extension.keyUsage, true,
+                        new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+                var root = converter.getCertificate(rootBuilder.build(
+                    new JcaContentSignerBuilder("SHA256withECDSA")
+                        .build(rootKeyPair.getPrivate())));
+
+                var attestationName = new X500Name(
+                    "C=CN,O=Passkey Test,OU=Authenticator Attestation,CN=Passkey Test Attestation");
+                var attestationBuilder = new JcaX509v3CertificateBuilder(rootName,
+                    BigInteger.TWO, notBefore, notAfter, attestationName,
+                    attestationKeyPair.getPublic())
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+                    .addExtension(new ASN1ObjectIdentifier("1.3.6.1.4.1.45724.1.1.4"), false,
+                        new DEROctetString(aaguid.getBytes()));
+                var attestation = converter.getCertificate(attestationBuilder.build(
+                    new JcaContentSignerBuilder("SHA256withECDSA")
+                        .build(rootKeyPair.getPrivate())));
+                return new AttestationCa(aaguid, root, attestation,
+                    attestationKeyPair.getPrivate());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        EmulatedAuthenticator newAuthenticator() {
+            return new EmulatedAuthenticator(aaguid, this);
+        }
+    }
+}
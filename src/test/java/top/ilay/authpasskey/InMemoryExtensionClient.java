@@ -0,0 +1,313 @@
+package top.ilay.authpasskey;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.lang.reflect.RecordComponent;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.GroupVersionKind;
+import run.halo.app.extension.JsonExtension;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.ListResult;
+import run.halo.app.extension.PageRequest;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.Unstructured;
+import run.halo.app.extension.Watcher;
+import run.halo.app.extension.index.IndexedQueryEngine;
+import run.halo.app.extension.index.query.Condition;
+
+/**
+ * A thread-safe in-memory {@link ReactiveExtensionClient} for tests.
+ *
+ * <p>Like the real store it copies extensions on every read and write, checks
+ * {@code metadata.version} on update, generates names, notifies watchers and evaluates field
+ * queries and sorts against registered index functions. Deletion removes the extension right
+ * away, there are no finalizers.</p>
+ */
+class InMemoryExtensionClient implements ReactiveExtensionClient {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .findAndRegisterModules()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final Map<Class<?>, Map<String, Extension>> store = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Map<String, Function<Extension, Object>>> indexes =
+        new ConcurrentHashMap<>();
+    private final List<Watcher> watchers = new CopyOnWriteArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    <E extends Extension> InMemoryExtensionClient index(Class<E> type, String name,
+        Function<E, Object> indexFunction) {
+        indexes.computeIfAbsent(type, key -> new ConcurrentHashMap<>())
+            .put(name, extension -> indexFunction.apply((E) extension));
+        return this;
+    }
+
+    /**
+     * The number of stored extensions of the given type.
+     */
+    int size(Class<? extends Extension> type) {
+        return bucket(type).size();
+    }
+
+    @Override
+    public <E extends Extension> Flux<E> list(Class<E> type, Predicate<E> predicate,
+        Comparator<E> comparator) {
+        return Flux.fromStream(() -> {
+            var items = bucket(type).values().stream()
+                .map(extension -> copy(extension, type))
+                .filter(item -> predicate == null || predicate.test(item));
+            return comparator == null ? items : items.sorted(comparator);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public <E extends Extension> Mono<ListResult<E>> list(Class<E> type, Predicate<E> predicate,
+        Comparator<E> comparator, int page, int size) {
+        return list(type, predicate, comparator).collectList()
+            .map(items -> new ListResult<>(page, size, items.size(),
+                ListResult.subList(items, page, size)));
+    }
+
+    @Override
+    public <E extends Extension> Flux<E> listAll(Class<E> type, ListOptions options,
+        Sort sort) {
+        return list(type, item -> matches(type, item, options.toCondition()),
+            comparator(type, sort));
+    }
+
+    @Override
+    public <E extends Extension> Flux<String> listAllNames(Class<E> type, ListOptions options,
+        Sort sort) {
+        return listAll(type, options, sort).map(item -> item.getMetadata().getName());
+    }
+
+    @Override
+    public <E extends Extension> Flux<String> listTopNames(Class<E> type, ListOptions options,
+        Sort sort, int topN) {
+        return listAllNames(type, options, sort).take(topN);
+    }
+
+    @Override
+    public <E extends Extension> Mono<ListResult<E>> listBy(Class<E> type, ListOptions options,
+        PageRequest page) {
+        return listAll(type, options, page.getSort()).collectList()
+            .map(items -> new ListResult<>(page.getPageNumber(), page.getPageSize(), items.size(),
+                ListResult.subList(items, page.getPageNumber(), page.getPageSize())));
+    }
+
+    @Override
+    public <E extends Extension> Mono<ListResult<String>> listNamesBy(Class<E> type,
+        ListOptions options, PageRequest page) {
+        return listAllNames(type, options, page.getSort()).collectList()
+            .map(items -> new ListResult<>(page.getPageNumber(), page.getPageSize(), items.size(),
+                ListResult.subList(items, page.getPageNumber(), page.getPageSize())));
+    }
+
+    @Override
+    public <E extends Extension> Mono<Long> countBy(Class<E> type, ListOptions options) {
+        return listAll(type, options, null).count();
+    }
+
+    @Override
+    public <E extends Extension> Mono<E> fetch(Class<E> type, String name) {
+        return Mono.fromSupplier(() -> {
+            var extension = bucket(type).get(name);
+            return extension == null ? null : copy(extension, type);
+        });
+    }
+
+    @Override
+    public <E extends Extension> Mono<E> get(Class<E> type, String name) {
+        return fetch(type, name);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Extension> Mono<E> create(E extension) {
+        return Mono.fromSupplier(() -> {
+            var type = (Class<E>) extension.getClass();
+            var stored = copy(extension, type);
+            var metadata = stored.getMetadata();
+            if (metadata.getName() == null) {
+                metadata.setName(Objects.requireNonNullElse(metadata.getGenerateName(), "")
+                    + UUID.randomUUID().toString().substring(0, 8));
+            }
+            metadata.setVersion(1L);
+            metadata.setCreationTimestamp(Instant.now());
+            if (bucket(type).putIfAbsent(metadata.getName(), stored) != null) {
+                throw new DuplicateKeyException(metadata.getName());
+            }
+            watchers.forEach(watcher -> watcher.onAdd(copy(stored, type)));
+            return copy(stored, type);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Extension> Mono<E> update(E extension) {
+        return Mono.fromSupplier(() -> {
+            var type = (Class<E>) extension.getClass();
+            var updated = copy(extension, type);
+            var name = updated.getMetadata().getName();
+            var previous = new Extension[1];
+            bucket(type).compute(name, (key, current) -> {
+                if (current == null || !Objects.equals(current.getMetadata().getVersion(),
+                    updated.getMetadata().getVersion())) {
+                    throw new OptimisticLockingFailureException("Version conflict: " + name);
+                }
+                previous[0] = current;
+                updated.getMetadata().setVersion(current.getMetadata().getVersion() + 1);
+                return updated;
+            });
+            watchers.forEach(watcher -> watcher.onUpdate(copy((E) previous[0], type),
+                copy(updated, type)));
+            return copy(updated, type);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Extension> Mono<E> delete(E extension) {
+        return Mono.fromSupplier(() -> {
+            var type = (Class<E>) extension.getClass();
+            var removed = bucket(type).remove(extension.getMetadata().getName());
+            if (removed == null) {
+                return null;
+            }
+            watchers.forEach(watcher -> watcher.onDelete(copy((E) removed, type)));
+            return copy((E) removed, type);
+        });
+    }
+
+    @Override
+    public void watch(Watcher watcher) {
+        watchers.add(watcher);
+        watcher.registerDisposeHook(() -> watchers.remove(watcher));
+    }
+
+    @Override
+    public Mono<Unstructured> fetch(GroupVersionKind gvk, String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Mono<JsonExtension> getJsonExtension(GroupVersionKind gvk, String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @SuppressWarnings("removal")
+    public IndexedQueryEngine indexedQueryEngine() {
+        throw new UnsupportedOperationException();
+    }
+
+    private Map<String, Extension> bucket(Class<?> type) {
+        return store.computeIfAbsent(type, key -> new ConcurrentHashMap<>());
+    }
+
+    private <E extends Extension> E copy(Extension extension, Class<E> type) {
+        return objectMapper.convertValue(extension, type);
+    }
+
+    private boolean matches(Class<?> type, Extension extension, Condition condition) {
+        String kind = condition.getClass().getSimpleName();
+        return switch (kind) {
+            case "AllCondition", "EmptyCondition" -> true;
+            case "NoneCondition" -> false;
+            case "And", "AndCondition" -> matches(type, extension, component(condition, "left"))
+                && matches(type, extension, component(condition, "right"));
+            case "Or", "OrCondition" -> matches(type, extension, component(condition, "left"))
+                || matches(type, extension, component(condition, "right"));
+            case "NotCondition" -> !matches(type, extension, component(condition, "condition"));
+            case "EqualCondition" -> Objects.equals(
+                indexValue(type, extension, component(condition, "indexName")),
+                component(condition, "key"));
+            case "InCondition" -> this.<Collection<?>>component(condition, "keys")
+                .contains(indexValue(type, extension, component(condition, "indexName")));
+            case "IsNullCondition" ->
+                indexValue(type, extension, component(condition, "indexName")) == null;
+            case "IsNotNullCondition" ->
+                indexValue(type, extension, component(condition, "indexName")) != null;
+            case "GreaterThanCondition" -> compare(type, extension, condition, "lowerBound") > 0
+                || (boolean) component(condition, "inclusive")
+                && compare(type, extension, condition, "lowerBound") == 0;
+            case "LessThanCondition" -> compare(type, extension, condition, "upperBound") < 0
+                || (boolean) component(condition, "inclusive")
+                && compare(type, extension, condition, "upperBound") == 0;
+            default ->
+                throw new UnsupportedOperationException("Unsupported condition: " + condition);
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private int compare(Class<?> type, Extension extension, Condition condition, String bound) {
+        var value = (Comparable) indexValue(type, extension, component(condition, "indexName"));
+        return value == null ? -1 : value.compareTo(component(condition, bound));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private <E extends Extension> Comparator<E> comparator(Class<E> type, Sort sort) {
+        if (sort == null || sort.isUnsorted()) {
+            return null;
+        }
+        Comparator<E> comparator = null;
+        for (Sort.Order order : sort) {
+            Comparator<E> next = Comparator.comparing(
+                item -> (Comparable) indexValue(type, item, order.getProperty()),
+                Comparator.nullsFirst(Comparator.naturalOrder()));
+            next = order.isAscending() ? next : next.reversed();
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+
+    private Object indexValue(Class<?> type, Extension extension, String indexName) {
+        switch (indexName) {
+            case "metadata.name":
+                return extension.getMetadata().getName();
+            case "metadata.creationTimestamp":
+                return extension.getMetadata().getCreationTimestamp();
+            case "metadata.deletionTimestamp":
+                return extension.getMetadata().getDeletionTimestamp();
+            default:
+                break;
+        }
+        var indexFunction = indexes.getOrDefault(type, Map.of()).get(indexName);
+        if (indexFunction == null) {
+            throw new UnsupportedOperationException("Unregistered index: " + indexName);
+        }
+        return indexFunction.apply(extension);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T component(Object record, String name) {
+        try {
+            for (RecordComponent component : record.getClass().getRecordComponents()) {
+                if (component.getName().equals(name)) {
+                    var accessor = component.getAccessor();
+                    accessor.setAccessible(true);
+                    return (T) accessor.invoke(record);
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        throw new UnsupportedOperationException("Unsupported condition: " + record);
+    }
+}
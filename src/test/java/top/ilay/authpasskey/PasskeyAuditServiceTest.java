@@ -0,0 +1,92 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import run.halo.app.extension.Metadata;
+
+class PasskeyAuditServiceTest {
+
+    InMemoryExtensionClient client;
+    PasskeySettings settings;
+    PasskeyAuditService auditService;
+
+    @BeforeEach
+    void setUp() {
+        client = new InMemoryExtensionClient();
+        settings = mock(PasskeySettings.class);
+        when(settings.audit()).thenReturn(PasskeySettings.Audit.DEFAULT);
+        auditService = new PasskeyAuditService(client, settings);
+    }
+
+    @AfterEach
+    void tearDown() {
+        auditService.destroy();
+    }
+
+    @Test
+    void countsFailuresOfUnknownCredentialsWithoutPersisting() {
+        for (int i = 0; i < 5; i++) {
+            auditService.signInFailed(null, "made-up-" + i, null, "凭证不存在");
+        }
+        auditService.flush();
+
+        assertEquals(0, client.size(PasskeyAuditEvent.class));
+        assertEquals(5, auditService.stats().unknownFailures());
+    }
+
+    @Test
+    void limitsPersistedFailuresPerCredential() {
+        var credential = credential("cred-1");
+        int attempts = PasskeyAuditService.MAX_FAILURES_PER_WINDOW + 5;
+        for (int i = 0; i < attempts; i++) {
+            auditService.signInFailed(credential, "cred-1", null, "签名无效");
+        }
+        auditService.signInFailed(credential("cred-2"), "cred-2", null, "签名无效");
+        auditService.flush();
+
+        assertEquals(PasskeyAuditService.MAX_FAILURES_PER_WINDOW + 1,
+            client.size(PasskeyAuditEvent.class));
+        assertEquals(5, auditService.stats().suppressedFailures());
+    }
+
+    @Test
+    void believesForwardingHeadersOnlyFromTrustedProxies() {
+        var forwarded = request("10.0.0.1")
+            .header("X-Forwarded-For", "6.6.6.6, 1.2.3.4, 10.0.0.2")
+            .build();
+        var realIp = request("10.0.0.1").header("X-Real-IP", "1.2.3.4").build();
+        var direct = request("5.6.7.8").header("X-Forwarded-For", "1.2.3.4").build();
+
+        assertEquals("10.0.0.1", auditService.clientInfo(forwarded).ipAddress());
+        assertEquals("10.0.0.1", auditService.clientInfo(realIp).ipAddress());
+
+        when(settings.audit()).thenReturn(new PasskeySettings.Audit(90, "10.0.0.0/8, ::1"));
+        assertEquals("1.2.3.4", auditService.clientInfo(forwarded).ipAddress());
+        assertEquals("1.2.3.4", auditService.clientInfo(realIp).ipAddress());
+        assertEquals("5.6.7.8", auditService.clientInfo(direct).ipAddress());
+    }
+
+    private static MockServerHttpRequest.BaseBuilder<?> request(String remoteAddress) {
+        return MockServerHttpRequest.post("/authentication/verify")
+            .remoteAddress(new InetSocketAddress(remoteAddress, 40000));
+    }
+
+    private static PasskeyCredential credential(String id) {
+        var credential = new PasskeyCredential();
+        credential.setMetadata(new Metadata());
+        credential.getMetadata().setName(id);
+        credential.setSpec(new PasskeyCredential.PasskeyCredentialSpec());
+        credential.getSpec().setUsername("alice");
+        credential.getSpec().setCredentialId(id);
+        credential.getSpec().setCreatedAt(Instant.now());
+        return credential;
+    }
+}
@@ -0,0 +1,121 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import run.halo.app.core.extension.User;
+import run.halo.app.extension.Metadata;
+
+class PasskeyCredentialReconcilerTest {
+
+    InMemoryExtensionClient client;
+    PasskeySettings settings;
+    PasskeyAuditService auditService;
+    PasskeyCredentialReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        client = new InMemoryExtensionClient();
+        settings = mock(PasskeySettings.class);
+        when(settings.resilience()).thenReturn(PasskeySettings.Resilience.DEFAULT);
+        auditService = mock(PasskeyAuditService.class);
+        reconciler = new PasskeyCredentialReconciler(client,
+            new PasskeyCredentialService(client, settings), settings, auditService);
+        user("alice");
+    }
+
+    @AfterEach
+    void tearDown() {
+        reconciler.destroy();
+    }
+
+    @Test
+    void flagsOrphansAndExpiresIdleCredentialsAcrossPages() {
+        when(settings.maintenance()).thenReturn(new PasskeySettings.Maintenance("flag", 30));
+        var idle = Instant.now().minus(Duration.ofDays(40));
+        IntStream.range(0, 60).forEach(i -> credential("alice", null));
+        IntStream.range(0, 5).forEach(i -> credential("alice", idle));
+        IntStream.range(0, 50).forEach(i -> credential("bob", null));
+
+        var run = reconciler.run().block();
+
+        assertEquals(115, run.examined());
+        assertEquals(50, run.flagged());
+        assertEquals(5, run.expired());
+        assertEquals(0, run.failed());
+        assertEquals(110, client.size(PasskeyCredential.class));
+        assertEquals(50, credentials().stream().filter(this::isFlagged).count());
+        assertTrue(credentials().stream().filter(this::isFlagged)
+            .allMatch(credential -> "bob".equals(credential.getSpec().getUsername())));
+
+        // Already flagged credentials are left alone
+        assertEquals(0, reconciler.run().block().flagged());
+        assertEquals(50, reconciler.stats().flagged());
+    }
+
+    @Test
+    void deletesOrphansAndClearsFlagsOfRecreatedUsers() {
+        when(settings.maintenance()).thenReturn(new PasskeySettings.Maintenance("delete", 0));
+        var flagged = credential("alice", null);
+        flagged.getMetadata().setAnnotations(
+            Map.of(PasskeyCredentialReconciler.ORPHANED_ANNOTATION, Instant.now().toString()));
+        client.update(flagged).block();
+        IntStream.range(0, 3).forEach(i -> credential("bob", null));
+
+        var run = reconciler.run().block();
+
+        assertEquals(4, run.examined());
+        assertEquals(3, run.orphansRemoved());
+        assertEquals(1, run.unflagged());
+        assertEquals(1, client.size(PasskeyCredential.class));
+        assertFalse(isFlagged(credentials().get(0)));
+        verify(auditService, times(3)).deleted(any(), isNull(), any());
+    }
+
+    private void user(String name) {
+        var user = new User();
+        var metadata = new Metadata();
+        metadata.setName(name);
+        user.setMetadata(metadata);
+        client.create(user).block();
+    }
+
+    private PasskeyCredential credential(String username, Instant lastUsedAt) {
+        var spec = new PasskeyCredential.PasskeyCredentialSpec();
+        spec.setUsername(username);
+        spec.setCredentialId(username + "-" + System.nanoTime());
+        spec.setCreatedAt(Instant.now());
+        spec.setLastUsedAt(lastUsedAt);
+        var metadata = new Metadata();
+        metadata.setGenerateName("passkey-");
+        var credential = new PasskeyCredential();
+        credential.setMetadata(metadata);
+        credential.setSpec(spec);
+        return client.create(credential).block();
+    }
+
+    private List<PasskeyCredential> credentials() {
+        return client.list(PasskeyCredential.class, null, null).collectList().block();
+    }
+
+    private boolean isFlagged(PasskeyCredential credential) {
+        var annotations = credential.getMetadata().getAnnotations();
+        return annotations != null
+            && annotations.containsKey(PasskeyCredentialReconciler.ORPHANED_ANNOTATION);
+    }
+}
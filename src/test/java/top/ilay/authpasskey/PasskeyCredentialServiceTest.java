@@ -0,0 +1,170 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Sort;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.Extension;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.Metadata;
+
+class PasskeyCredentialServiceTest {
+
+    OutageClient client;
+    PasskeyCredentialService service;
+
+    @BeforeEach
+    void setUp() {
+        client = new OutageClient();
+        client.index(PasskeyCredential.class, "spec.username",
+                credential -> credential.getSpec().getUsername())
+            .index(PasskeyCredential.class, "spec.credentialId",
+                credential -> credential.getSpec().getCredentialId());
+        var settings = mock(PasskeySettings.class);
+        when(settings.resilience()).thenReturn(new PasskeySettings.Resilience(100, 100, 50, 1));
+        service = new PasskeyCredentialService(client, settings);
+        service.onPluginStarted();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    void servesSnapshotsWhileStoreTimesOut() {
+        credential("alice", "cred-1");
+        lookUp();
+
+        client.outage = Outage.HANG;
+        lookUp();
+        var e = assertThrows(IllegalStateException.class,
+            () -> service.findByCredentialId("cred-2").block());
+        assertEquals(PasskeyCredentialService.UNAVAILABLE, e.getMessage());
+
+        var stats = service.stats();
+        assertEquals(2, stats.fallbackLookups());
+        assertEquals(1, stats.unavailableLookups());
+    }
+
+    @Test
+    void forgetsDeletedCredentials() {
+        var credential = credential("alice", "cred-1");
+        service.findByCredentialId("cred-1").block();
+        client.delete(credential).block();
+
+        client.outage = Outage.FAIL;
+        assertThrows(IllegalStateException.class,
+            () -> service.findByCredentialId("cred-1").block());
+    }
+
+    @Test
+    void keepsConsoleCallsOutOfTheBreaker() {
+        var credential = credential("alice", "cred-1");
+
+        client.outage = Outage.FAIL;
+        for (int i = 0; i < 20; i++) {
+            assertThrows(DataAccessResourceFailureException.class,
+                () -> service.findByUsername("alice").blockLast());
+            assertThrows(DataAccessResourceFailureException.class,
+                () -> service.update(credential).block());
+        }
+
+        assertEquals("CLOSED", service.stats().state());
+        assertEquals(-1, service.stats().failureRate());
+    }
+
+    @Test
+    void defersSignatureCountsWhileBreakerIsOpen() throws InterruptedException {
+        credential("alice", "cred-1");
+        var credential = service.findByCredentialId("cred-1").block();
+
+        client.outage = Outage.FAIL;
+        for (int i = 0; i < 10; i++) {
+            service.findByCredentialId("cred-1").block();
+        }
+        assertEquals("OPEN", service.stats().state());
+
+        var signedIn = service.updateSignatureCount(credential, 5).block();
+        assertEquals(5, signedIn.getSpec().getSignatureCount());
+        // An older counter arriving late does not win
+        assertEquals(5, service.updateSignatureCount(credential, 3).block().getSpec()
+            .getSignatureCount());
+        var snapshot = service.findByCredentialId("cred-1").block();
+        assertEquals(5, snapshot.getSpec().getSignatureCount());
+        assertEquals(0, stored("cred-1").getSpec().getSignatureCount());
+        assertEquals(1, service.stats().pendingWrites());
+
+        client.outage = null;
+        Thread.sleep(1100);
+        for (int i = 0; i < 3; i++) {
+            service.findByCredentialId("cred-1").block();
+        }
+
+        var stats = service.stats();
+        assertEquals("CLOSED", stats.state());
+        assertEquals(2, stats.deferredWrites());
+        assertEquals(0, stats.pendingWrites());
+        assertEquals(1, stats.flushedWrites());
+        var stored = stored("cred-1");
+        assertEquals(5, stored.getSpec().getSignatureCount());
+        assertFalse(stored.getSpec().getLastUsedAt()
+            .isBefore(signedIn.getSpec().getLastUsedAt()));
+    }
+
+    private void lookUp() {
+        assertEquals("alice", service.findByCredentialId("cred-1").block().getSpec().getUsername());
+        assertEquals(1, service.findByUsernameForSignIn("alice").collectList().block().size());
+    }
+
+    private PasskeyCredential stored(String name) {
+        return client.get(PasskeyCredential.class, name).block();
+    }
+
+    private PasskeyCredential credential(String username, String id) {
+        var credential = new PasskeyCredential();
+        credential.setMetadata(new Metadata());
+        credential.getMetadata().setName(id);
+        credential.setSpec(new PasskeyCredential.PasskeyCredentialSpec());
+        credential.getSpec().setUsername(username);
+        credential.getSpec().setCredentialId(id);
+        credential.getSpec().setCreatedAt(Instant.now());
+        return client.create(credential).block();
+    }
+
+    enum Outage {
+        HANG, FAIL
+    }
+
+    static class OutageClient extends InMemoryExtensionClient {
+
+        volatile Outage outage;
+
+        @Override
+        public <E extends Extension> Flux<E> listAll(Class<E> type, ListOptions options,
+            Sort sort) {
+            return outage == null ? super.listAll(type, options, sort)
+                : this.<E>unavailable().flux();
+        }
+
+        @Override
+        public <E extends Extension> Mono<E> update(E extension) {
+            return outage == null ? super.update(extension) : unavailable();
+        }
+
+        private <T> Mono<T> unavailable() {
+            return outage == Outage.HANG ? Mono.never()
+                : Mono.error(new DataAccessResourceFailureException("store down"));
+        }
+    }
+}
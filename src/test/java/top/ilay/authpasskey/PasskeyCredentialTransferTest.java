@@ -0,0 +1,139 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import run.halo.app.extension.Metadata;
+
+class PasskeyCredentialTransferTest {
+
+    final InMemoryExtensionClient source = credentialClient();
+    final InMemoryExtensionClient target = credentialClient();
+    final PasskeySettings settings = mock(PasskeySettings.class);
+
+    {
+        when(settings.resilience()).thenReturn(PasskeySettings.Resilience.DEFAULT);
+    }
+
+    @Test
+    void exportsAndImportsAcrossPagesAndBatches() {
+        var lastUsedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        IntStream.range(0, 250).forEach(i -> credential(source, "cred-" + i, lastUsedAt));
+        credential(target, "cred-7", null);
+
+        byte[] exported = read(new PasskeyCredentialTransfer(source,
+            new PasskeyCredentialService(source, settings)).export());
+        var upload = new ByteArrayOutputStream();
+        upload.writeBytes(exported);
+        upload.writeBytes("\n{not json\n".getBytes(StandardCharsets.UTF_8));
+        upload.writeBytes(Arrays.copyOf(exported, indexOf(exported, (byte) '\n') + 1));
+        upload.writeBytes("{\"username\":\"alice\",\"credentialId\":\"!!\"}\n"
+            .getBytes(StandardCharsets.UTF_8));
+
+        var results = new PasskeyCredentialTransfer(target, new PasskeyCredentialService(target, settings))
+            .importFrom(chunked(upload.toByteArray(), 37))
+            .collectList()
+            .block();
+
+        assertEquals(253, results.size());
+        var outcomes = results.stream().collect(Collectors.groupingBy(
+            PasskeyCredentialTransfer.ImportResult::outcome, Collectors.counting()));
+        assertEquals(249, outcomes.get(PasskeyCredentialTransfer.Outcome.CREATED));
+        assertEquals(2, outcomes.get(PasskeyCredentialTransfer.Outcome.SKIPPED));
+        assertEquals(2, outcomes.get(PasskeyCredentialTransfer.Outcome.FAILED));
+        // Line 251 is blank
+        assertEquals(252L, results.get(250).line());
+        assertNull(results.get(250).credentialId());
+        assertEquals("字段编码无效: credentialId", results.get(252).message());
+        assertEquals(250, target.size(PasskeyCredential.class));
+
+        Map<String, PasskeyCredential> imported = target.list(PasskeyCredential.class, null, null)
+            .collectMap(credential -> credential.getSpec().getCredentialId(), Function.identity())
+            .block();
+        var spec = imported.get(encode("cred-42")).getSpec();
+        assertEquals("user-42", spec.getUsername());
+        assertEquals(42, spec.getSignatureCount());
+        assertEquals(lastUsedAt, spec.getLastUsedAt());
+        assertArrayEquals(new String[] {"usb", "nfc"}, spec.getTransports());
+    }
+
+    private static InMemoryExtensionClient credentialClient() {
+        return new InMemoryExtensionClient()
+            .index(PasskeyCredential.class, "spec.credentialId",
+                credential -> credential.getSpec().getCredentialId());
+    }
+
+    private static void credential(InMemoryExtensionClient client, String id,
+        Instant lastUsedAt) {
+        int number = Integer.parseInt(id.substring(id.indexOf('-') + 1));
+        var spec = new PasskeyCredential.PasskeyCredentialSpec();
+        spec.setUsername("user-" + number);
+        spec.setCredentialId(encode(id));
+        spec.setPublicKey(encode("public-key-" + number));
+        spec.setSignatureCount(number);
+        spec.setTransports(new String[] {"usb", "nfc"});
+        spec.setCreatedAt(Instant.now());
+        spec.setLastUsedAt(lastUsedAt);
+        var metadata = new Metadata();
+        metadata.setGenerateName("passkey-");
+        var credential = new PasskeyCredential();
+        credential.setMetadata(metadata);
+        credential.setSpec(spec);
+        client.create(credential).block();
+    }
+
+    private static String encode(String value) {
+        return EmulatedAuthenticator.encode(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] read(Flux<DataBuffer> buffers) {
+        var out = new ByteArrayOutputStream();
+        buffers.doOnNext(buffer -> {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            out.writeBytes(bytes);
+            DataBufferUtils.release(buffer);
+        }).blockLast();
+        return out.toByteArray();
+    }
+
+    /**
+     * Split into chunks that cut through lines, as a streamed upload would.
+     */
+    private static Flux<DataBuffer> chunked(byte[] bytes, int chunkSize) {
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            chunks.add(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes,
+                offset, Math.min(bytes.length, offset + chunkSize))));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private static int indexOf(byte[] bytes, byte value) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,494 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.server.context.ServerSecurityContextRepository;
+import org.springframework.web.reactive.function.server.EntityResponse;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.ListResult;
+import run.halo.app.extension.Metadata;
+import run.halo.app.security.LoginHandlerEnhancer;
+
+class PasskeyEndpointTest {
+
+    static final String ORIGIN = "http://localhost:8090";
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    InMemoryExtensionClient client;
+    PasskeyCredentialService credentialService;
+    CredentialIdFilter credentialIdFilter;
+    CredentialDescriptorCache descriptorCache;
+    WebAuthnService webAuthnService;
+    ReactiveUserDetailsService userDetailsService;
+    ServerSecurityContextRepository securityContextRepository;
+    LoginHandlerEnhancer loginHandlerEnhancer;
+    AssertionCoalescer assertionCoalescer;
+    PasskeyAuditService auditService;
+    PasskeyEndpoint endpoint;
+    EmulatedAuthenticator authenticator;
+    ResponseCookie owner;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        client = new InMemoryExtensionClient()
+            .index(PasskeyCredential.class, "spec.username",
+                credential -> credential.getSpec().getUsername())
+            .index(PasskeyCredential.class, "spec.credentialId",
+                credential -> credential.getSpec().getCredentialId());
+        var settings = mock(PasskeySettings.class);
+        when(settings.attestation()).thenReturn(PasskeySettings.Attestation.DEFAULT);
+        when(settings.observability()).thenReturn(PasskeySettings.Observability.DEFAULT);
+        when(settings.performance()).thenReturn(PasskeySettings.Performance.DEFAULT);
+        when(settings.resilience()).thenReturn(PasskeySettings.Resilience.DEFAULT);
+        credentialService = spy(new PasskeyCredentialService(client, settings));
+        credentialIdFilter = new CredentialIdFilter(client);
+        credentialIdFilter.onPluginStarted();
+        descriptorCache = new CredentialDescriptorCache(client, credentialService);
+        descriptorCache.onPluginStarted();
+        webAuthnService = new WebAuthnService(credentialService, new AttestationPolicy(settings),
+            credentialIdFilter, descriptorCache);
+        userDetailsService = mock(ReactiveUserDetailsService.class);
+        securityContextRepository = mock(ServerSecurityContextRepository.class);
+        when(securityContextRepository.save(any(), any())).thenReturn(Mono.empty());
+        loginHandlerEnhancer = mock(LoginHandlerEnhancer.class);
+        when(loginHandlerEnhancer.onLoginSuccess(any(), any())).thenReturn(Mono.empty());
+        var userDetailsCache = new PasskeyUserDetailsCache(client, userDetailsService, settings);
+        assertionCoalescer = new AssertionCoalescer();
+        auditService = mock(PasskeyAuditService.class);
+        endpoint = new PasskeyEndpoint(webAuthnService, credentialService, userDetailsCache,
+            securityContextRepository, loginHandlerEnhancer, auditService,
+            new ServerTimingFilter(settings), new PasskeyRequestDecoder(), assertionCoalescer);
+
+        authenticator = EmulatedAuthenticator.create();
+        var options = json(webAuthnService.generateRegistrationOptions("alice", null, ORIGIN)
+            .block());
+        var registration = authenticator.register("localhost", ORIGIN,
+            Base64.getUrlDecoder().decode(options.get("challenge").asText()));
+        webAuthnService.verifyRegistration("alice", registration.credentialId(),
+                registration.attestationObject(), registration.clientDataJSON(),
+                List.of("internal"), null, ORIGIN)
+            .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        credentialIdFilter.destroy();
+        descriptorCache.destroy();
+    }
+
+    @Test
+    void loadsUserDetailsWhileVerifying() throws Exception {
+        var challengesAtLookup = new AtomicInteger(-1);
+        when(userDetailsService.findByUsername("alice")).thenReturn(Mono.defer(() -> {
+            challengesAtLookup.set(webAuthnService.pendingChallenges());
+            return Mono.delay(Duration.ofMillis(50)).thenReturn(user("alice"));
+        }));
+
+        var response = signIn(exchange());
+
+        assertEquals(HttpStatus.OK, response.statusCode());
+        // The lookup started before the challenge was consumed by the verification
+        assertEquals(1, challengesAtLookup.get());
+        assertEquals(0, webAuthnService.pendingChallenges());
+        assertEquals(authenticator.counter(),
+            credentialService.findByCredentialId(authenticator.credentialIdBase64()).block()
+                .getSpec().getSignatureCount());
+        verify(securityContextRepository).save(any(), any());
+    }
+
+    @Test
+    void signsInWithCborBody() throws Exception {
+        when(userDetailsService.findByUsername("alice")).thenReturn(Mono.just(user("alice")));
+
+        var response = signIn(exchange(), true);
+
+        assertEquals(HttpStatus.OK, response.statusCode());
+        assertEquals("alice", ((PasskeyEndpoint.AuthenticationResponse) entity(response))
+            .username());
+        verify(securityContextRepository).save(any(), any());
+    }
+
+    @Test
+    void issuesOwnerCookieWithOptions() {
+        var issued = ownerCookie(null);
+        assertEquals(PasskeyEndpoint.OWNER_COOKIE, issued.getName());
+        assertTrue(issued.isHttpOnly());
+        assertEquals("Strict", issued.getSameSite());
+        assertEquals(PasskeyEndpoint.OWNER_COOKIE_MAX_AGE, issued.getMaxAge());
+
+        // Kept for a client that already has one
+        assertEquals(issued.getValue(), ownerCookie(issued).getValue());
+        assertNotEquals(issued.getValue(), ownerCookie(null).getValue());
+    }
+
+    @Test
+    void sharesSignInWithDuplicatesOfTheSameClient() throws Exception {
+        when(userDetailsService.findByUsername("alice")).thenReturn(
+            Mono.delay(Duration.ofMillis(50)).thenReturn(user("alice")));
+        var body = assertionBody(false);
+
+        // A double click, without any web session yet, the second posted while the first is in
+        // flight
+        var pending = post(exchange(owner), body, false).toFuture();
+        var duplicate = post(exchange(owner), body, false).block();
+        assertEquals(HttpStatus.OK, pending.get().statusCode());
+        // A retry after the response got lost
+        var retried = post(exchange(owner), body, false).block();
+
+        assertEquals(HttpStatus.OK, duplicate.statusCode());
+        assertEquals(HttpStatus.OK, retried.statusCode());
+        verify(credentialService).findByCredentialId(authenticator.credentialIdBase64());
+        verify(credentialService).updateSignatureCount(any(PasskeyCredential.class), anyLong());
+        // Signed in once, by the first submission
+        verify(securityContextRepository).save(any(), any());
+        verify(loginHandlerEnhancer).onLoginSuccess(any(), any());
+        var stats = assertionCoalescer.stats();
+        assertEquals(1, stats.executions());
+        assertEquals(2, stats.coalesced());
+    }
+
+    @Test
+    void rejectsReplayedSubmissions() throws Exception {
+        when(userDetailsService.findByUsername("alice")).thenReturn(
+            Mono.delay(Duration.ofMillis(50)).thenReturn(user("alice")));
+        var body = assertionBody(false);
+
+        // Posted by another client while the first is in flight
+        var pending = post(exchange(owner), body, false).toFuture();
+        var replayed = post(exchange(), body, false).block();
+        assertEquals(HttpStatus.OK, pending.get().statusCode());
+        // Posted again by other clients after the first succeeded
+        var withoutOwner = post(exchange(), body, false).block();
+        var otherOwner = post(exchange(ownerCookie(null)), body, false).block();
+
+        for (var response : List.of(replayed, withoutOwner, otherOwner)) {
+            assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+            assertEquals("会话挑战信息不存在", message(response));
+        }
+        verify(securityContextRepository).save(any(), any());
+        var stats = assertionCoalescer.stats();
+        assertEquals(0, stats.coalesced());
+        assertEquals(3, stats.mismatched());
+    }
+
+    @Test
+    void rejectsDifferentPayloadForSameSubmission() throws Exception {
+        when(userDetailsService.findByUsername("alice")).thenReturn(Mono.just(user("alice")));
+        var body = assertionBody(false);
+        assertEquals(HttpStatus.OK, post(exchange(owner), body, false).block().statusCode());
+
+        var tampered = (ObjectNode) objectMapper.readTree(body);
+        tampered.put("origin", "http://localhost:8091");
+        var response = post(exchange(owner), objectMapper.writeValueAsBytes(tampered), false)
+            .block();
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+        assertEquals("会话挑战信息不存在", message(response));
+        assertEquals(1, assertionCoalescer.stats().mismatched());
+    }
+
+    @Test
+    void keepsNoLoginStateWhenCounterCannotBePersisted() throws Exception {
+        when(userDetailsService.findByUsername("alice")).thenReturn(Mono.just(user("alice")));
+        doReturn(Mono.error(new IllegalStateException("写入失败")))
+            .when(credentialService).updateSignatureCount(any(PasskeyCredential.class), anyLong());
+        var exchange = exchange();
+
+        var response = signIn(exchange);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+        assertEquals("写入失败", message(response));
+        assertTrue(exchange.getSession().block().isExpired());
+        // No remember-me token or device is issued for the failed sign-in
+        verify(loginHandlerEnhancer, never()).onLoginSuccess(any(), any());
+    }
+
+    @Test
+    void rejectsMissingUserOnlyAfterVerification() throws Exception {
+        when(userDetailsService.findByUsername(anyString())).thenReturn(Mono.empty());
+
+        var response = signIn(exchange());
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+        assertEquals("用户不存在", message(response));
+        assertEquals(0, webAuthnService.pendingChallenges());
+        verify(securityContextRepository, never()).save(any(), any());
+    }
+
+    @Test
+    void auditsFailuresWithTheLoadedCredential() throws Exception {
+        var body = (ObjectNode) objectMapper.readTree(assertionBody(false));
+        var unknownId = EmulatedAuthenticator.encode("unknown".getBytes());
+        body.put("credentialId", unknownId);
+
+        var response = post(exchange(), objectMapper.writeValueAsBytes(body), false).block();
+
+        assertEquals("凭证不存在", message(response));
+        verify(auditService).signInFailed(isNull(), eq(unknownId), any(), eq("凭证不存在"));
+        verify(credentialService, never()).findByCredentialId(anyString());
+
+        when(userDetailsService.findByUsername("alice")).thenReturn(Mono.empty());
+        signIn(exchange());
+        verify(auditService).signInFailed(
+            argThat(credential -> credential != null
+                && "alice".equals(credential.getSpec().getUsername())),
+            eq(authenticator.credentialIdBase64()), any(), eq("用户不存在"));
+    }
+
+    @Test
+    void rejectsDisabledUser() throws Exception {
+        when(userDetailsService.findByUsername("alice")).thenReturn(Mono.just(
+            User.withUsername("alice").password("").authorities("ROLE_USER").disabled(true)
+                .build()));
+
+        var response = signIn(exchange());
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+        assertEquals("用户已被禁用", message(response));
+        verify(securityContextRepository, never()).save(any(), any());
+    }
+
+    @Test
+    void appliesBatchesOnlyToOwnCredentials() throws Exception {
+        var own = credentialService.findByCredentialId(authenticator.credentialIdBase64()).block()
+            .getMetadata().getName();
+        var other = client.create(credential("bob", "bob-key")).block().getMetadata().getName();
+
+        var renamed = (PasskeyEndpoint.BatchResponse) entity(batch("/credentials/batch-rename",
+            new PasskeyEndpoint.BatchRenameRequest(List.of(
+                new PasskeyEndpoint.RenameItem(own, "Laptop"),
+                new PasskeyEndpoint.RenameItem(other, "Stolen")))));
+        assertEquals(List.of(
+            new PasskeyEndpoint.BatchItemResult(own, true, null),
+            new PasskeyEndpoint.BatchItemResult(other, false, "凭证不存在或无权访问")),
+            renamed.results());
+        assertEquals("Laptop", credentialService.findByName(own).block().getSpec()
+            .getDisplayName());
+
+        var deleted = (PasskeyEndpoint.BatchResponse) entity(batch("/credentials/batch-delete",
+            new PasskeyEndpoint.BatchDeleteRequest(List.of(other, own, own, "missing"))));
+        assertEquals(List.of(false, true, false),
+            deleted.results().stream().map(PasskeyEndpoint.BatchItemResult::success).toList());
+        assertEquals(1, client.size(PasskeyCredential.class));
+        assertEquals("bob", client.get(PasskeyCredential.class, other).block().getSpec()
+            .getUsername());
+        // One ownership query per batch instead of a lookup per credential
+        verify(credentialService, never()).findByName(other);
+    }
+
+    @Test
+    void rejectsOversizedBatch() throws Exception {
+        var names = IntStream.rangeClosed(0, PasskeyEndpoint.MAX_BATCH_SIZE)
+            .mapToObj(i -> "passkey-" + i)
+            .toList();
+
+        var response = batch("/credentials/batch-delete",
+            new PasskeyEndpoint.BatchDeleteRequest(names));
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+        assertEquals("字段长度超出限制: names", message(response));
+        verify(credentialService, never()).findByNames(anyString(), any());
+    }
+
+    @Test
+    void rejectsInvalidPagingOfSignIns() {
+        var response = get("/audit/sign-ins?page=x");
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.statusCode());
+        assertEquals("无效的参数: page", message(response));
+        verify(auditService, never()).listRecentSignIns(anyString(), anyInt(), anyInt());
+
+        when(auditService.listRecentSignIns(anyString(), anyInt(), anyInt()))
+            .thenReturn(Mono.just(new ListResult<>(List.of())));
+        assertEquals(HttpStatus.OK, get("/audit/sign-ins?page=0&size=100000").statusCode());
+        verify(auditService).listRecentSignIns("alice", 1, PasskeyEndpoint.MAX_PAGE_SIZE);
+    }
+
+    private ServerResponse get(String uri) {
+        var request = MockServerRequest.builder()
+            .method(HttpMethod.GET)
+            .uri(URI.create(uri))
+            .queryParams(UriComponentsBuilder.fromUriString(uri).build().getQueryParams())
+            .exchange(MockServerWebExchange.from(MockServerHttpRequest.get(uri)))
+            .build();
+        return endpoint.endpoint().route(request)
+            .flatMap(handler -> handler.handle(request))
+            .contextWrite(ReactiveSecurityContextHolder.withAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated("alice", null, List.of())))
+            .block();
+    }
+
+    private ServerResponse batch(String path, Object body) throws Exception {
+        var request = MockServerRequest.builder()
+            .method(HttpMethod.POST)
+            .uri(URI.create(path))
+            .exchange(MockServerWebExchange.from(MockServerHttpRequest.post(path)))
+            .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(
+                objectMapper.writeValueAsBytes(body))));
+        return endpoint.endpoint().route(request)
+            .flatMap(handler -> handler.handle(request))
+            .contextWrite(ReactiveSecurityContextHolder.withAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated("alice", null, List.of())))
+            .block();
+    }
+
+    private ServerResponse signIn(MockServerWebExchange exchange) throws Exception {
+        return signIn(exchange, false);
+    }
+
+    private ServerResponse signIn(MockServerWebExchange exchange, boolean cbor)
+        throws Exception {
+        return post(exchange, assertionBody(cbor), cbor).block();
+    }
+
+    /**
+     * An assertion for options issued by the endpoint, which also hands out {@link #owner}.
+     */
+    private byte[] assertionBody(boolean cbor) throws Exception {
+        var response = (EntityResponse<?>) authenticationOptions(null);
+        owner = response.cookies().getFirst(PasskeyEndpoint.OWNER_COOKIE);
+        var options = json((byte[]) response.entity());
+        var assertion = authenticator.authenticate("localhost", ORIGIN,
+            Base64.getUrlDecoder().decode(options.get("challenge").asText()));
+        var sessionId = options.get("sessionId").asText();
+        return cbor
+            ? new CBORMapper().writeValueAsBytes(
+                new PasskeyEndpoint.BinaryAuthenticationVerifyRequest(sessionId,
+                    assertion.credentialId(), assertion.authenticatorData(),
+                    assertion.clientDataJSON(), assertion.signature(), null, ORIGIN))
+            : objectMapper.writeValueAsBytes(new PasskeyEndpoint.AuthenticationVerifyRequest(
+                sessionId,
+                EmulatedAuthenticator.encode(assertion.credentialId()),
+                EmulatedAuthenticator.encode(assertion.authenticatorData()),
+                EmulatedAuthenticator.encode(assertion.clientDataJSON()),
+                EmulatedAuthenticator.encode(assertion.signature()),
+                null,
+                ORIGIN));
+    }
+
+    private ResponseCookie ownerCookie(ResponseCookie owner) {
+        return ((EntityResponse<?>) authenticationOptions(owner)).cookies()
+            .getFirst(PasskeyEndpoint.OWNER_COOKIE);
+    }
+
+    private ServerResponse authenticationOptions(ResponseCookie owner) {
+        var exchange = MockServerWebExchange.from(
+            MockServerHttpRequest.post("/authentication/options"));
+        var request = MockServerRequest.builder()
+            .method(HttpMethod.POST)
+            .uri(URI.create("/authentication/options"))
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .cookie(owner == null ? new HttpCookie[0]
+                : new HttpCookie[] {new HttpCookie(owner.getName(), owner.getValue())})
+            .exchange(exchange)
+            .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(
+                ("{\"origin\":\"" + ORIGIN + "\"}").getBytes(StandardCharsets.UTF_8))));
+        return endpoint.endpoint().route(request)
+            .flatMap(handler -> handler.handle(request))
+            .block();
+    }
+
+    private Mono<ServerResponse> post(MockServerWebExchange exchange, byte[] body,
+        boolean cbor) {
+        var request = MockServerRequest.builder()
+            .method(HttpMethod.POST)
+            .uri(URI.create("/authentication/verify"))
+            .cookie(exchange.getRequest().getCookies().values().stream()
+                .flatMap(List::stream)
+                .toArray(HttpCookie[]::new))
+            .header(HttpHeaders.CONTENT_TYPE, cbor ? MediaType.APPLICATION_CBOR_VALUE
+                : MediaType.APPLICATION_JSON_VALUE)
+            .exchange(exchange)
+            .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body)));
+        return endpoint.endpoint().route(request)
+            .flatMap(handler -> handler.handle(request));
+    }
+
+    private static MockServerWebExchange exchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/authentication/verify"));
+    }
+
+    private static MockServerWebExchange exchange(ResponseCookie owner) {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/authentication/verify")
+            .cookie(new HttpCookie(owner.getName(), owner.getValue())));
+    }
+
+    private static UserDetails user(String name) {
+        return User.withUsername(name).password("").authorities("ROLE_USER").build();
+    }
+
+    private static String message(ServerResponse response) {
+        return ((PasskeyEndpoint.ErrorResponse) entity(response)).message();
+    }
+
+    private static Object entity(ServerResponse response) {
+        return ((EntityResponse<?>) response).entity();
+    }
+
+    private static PasskeyCredential credential(String username, String id) {
+        var spec = new PasskeyCredential.PasskeyCredentialSpec();
+        spec.setUsername(username);
+        spec.setCredentialId(EmulatedAuthenticator.encode(id.getBytes()));
+        spec.setPublicKey(EmulatedAuthenticator.encode(id.getBytes()));
+        spec.setCreatedAt(Instant.now());
+        var metadata = new Metadata();
+        metadata.setGenerateName("passkey-");
+        var credential = new PasskeyCredential();
+        credential.setMetadata(metadata);
+        credential.setSpec(spec);
+        return credential;
+    }
+
+    private JsonNode json(byte[] bytes) throws Exception {
+        return objectMapper.readTree(bytes);
+    }
+}
@@ -0,0 +1,69 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PasskeyOptionsEncoderTest {
+
+    final PasskeyOptionsEncoder encoder = new PasskeyOptionsEncoder();
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void encodesRegistrationOptions() throws Exception {
+        byte[] descriptors = PasskeyOptionsEncoder.descriptors(List.of(
+            credential("cred-1", "usb", "nfc"),
+            credential("cred-2")
+        ));
+        byte[] json = encoder.registration("example.com", "direct", ascii("challenge"),
+            ascii("user-id"), "alice", "Alice \"A\" 测试", descriptors);
+
+        JsonNode options = objectMapper.readTree(json);
+        assertEquals("challenge", options.get("challenge").asText());
+        assertEquals("example.com", options.at("/rp/id").asText());
+        assertEquals("Halo", options.at("/rp/name").asText());
+        assertEquals("user-id", options.at("/user/id").asText());
+        assertEquals("alice", options.at("/user/name").asText());
+        assertEquals("Alice \"A\" 测试", options.at("/user/displayName").asText());
+        assertEquals("cred-1", options.at("/excludeCredentials/0/id").asText());
+        assertEquals("public-key", options.at("/excludeCredentials/0/type").asText());
+        assertEquals("nfc", options.at("/excludeCredentials/0/transports/1").asText());
+        assertFalse(options.at("/excludeCredentials/1").has("transports"));
+        assertEquals("preferred", options.at("/authenticatorSelection/residentKey").asText());
+        assertEquals(60000, options.get("timeout").asLong());
+        assertEquals(-257, options.at("/pubKeyCredParams/1/alg").asInt());
+        assertEquals("direct", options.get("attestation").asText());
+    }
+
+    @Test
+    void encodesAuthenticationOptions() throws Exception {
+        byte[] json = encoder.authentication("example.com", ascii("challenge"),
+            PasskeyOptionsEncoder.NO_DESCRIPTORS, ascii("session"));
+
+        JsonNode options = objectMapper.readTree(json);
+        assertEquals("challenge", options.get("challenge").asText());
+        assertEquals("example.com", options.get("rpId").asText());
+        assertEquals(60000, options.get("timeout").asLong());
+        assertEquals(0, options.get("allowCredentials").size());
+        assertEquals("preferred", options.get("userVerification").asText());
+        assertEquals("session", options.get("sessionId").asText());
+    }
+
+    private static PasskeyCredential credential(String credentialId, String... transports) {
+        var spec = new PasskeyCredential.PasskeyCredentialSpec();
+        spec.setCredentialId(credentialId);
+        spec.setTransports(transports);
+        var credential = new PasskeyCredential();
+        credential.setSpec(spec);
+        return credential;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,148 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class PasskeyRequestDecoderTest {
+
+    final PasskeyRequestDecoder decoder = new PasskeyRequestDecoder();
+
+    @Test
+    void decodesValidBody() {
+        var body = """
+            {"sessionId": "s", "credentialId": "AAAA", "authenticatorData": "AAAA",
+             "clientDataJSON": "e30", "signature": "AAAA", "unknown": 1}
+            """;
+        assertEquals("e30", decode(body, null).block().clientDataJSON());
+    }
+
+    @Test
+    void decodesCborBody() throws Exception {
+        var signature = new byte[] {1, 2, 3};
+        var body = new CBORMapper().writeValueAsBytes(
+            new PasskeyEndpoint.BinaryAuthenticationVerifyRequest("s", new byte[] {0}, new byte[37],
+                "{}".getBytes(StandardCharsets.UTF_8), signature, null, null));
+        var request = MockServerRequest.builder()
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR_VALUE)
+            .body(Flux.just((DataBuffer) DefaultDataBufferFactory.sharedInstance.wrap(body)));
+
+        var decoded = decoder.decode(request,
+            PasskeyEndpoint.BinaryAuthenticationVerifyRequest.class,
+            PasskeyEndpoint.BinaryAuthenticationVerifyRequest.MAX_BODY_BYTES).block();
+
+        assertArrayEquals(signature, decoded.signature());
+        assertEquals("AA", decoded.encodedCredentialId());
+    }
+
+    @Test
+    void rejectsOversizedCborField() throws Exception {
+        var body = new CBORMapper().writeValueAsBytes(
+            new PasskeyEndpoint.BinaryAuthenticationVerifyRequest("s", new byte[1024],
+                new byte[37], new byte[2], new byte[64], null, null));
+        var request = MockServerRequest.builder()
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR_VALUE)
+            .body(Flux.just((DataBuffer) DefaultDataBufferFactory.sharedInstance.wrap(body)));
+
+        assertRejected("字段长度超出限制: credentialId", decoder.decode(request,
+            PasskeyEndpoint.BinaryAuthenticationVerifyRequest.class,
+            PasskeyEndpoint.BinaryAuthenticationVerifyRequest.MAX_BODY_BYTES));
+        assertRejections(PasskeyRequestDecoder.Reason.FIELD_TOO_LONG, 1);
+    }
+
+    @Test
+    void rejectsOversizedBodyFromContentLength() {
+        assertRejected("请求体过大", decode("{}", 1L << 20));
+        assertRejections(PasskeyRequestDecoder.Reason.BODY_TOO_LARGE, 1);
+    }
+
+    @Test
+    void rejectsOversizedBodyWhileStreaming() {
+        var chunk = "{\"sessionId\": \"" + "x".repeat(8 * 1024);
+        var factory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.range(0, 4)
+            .map(i -> factory.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+        var request = MockServerRequest.builder().body(body);
+
+        assertRejected("请求体过大", decoder.decode(request,
+            PasskeyEndpoint.AuthenticationVerifyRequest.class,
+            PasskeyEndpoint.AuthenticationVerifyRequest.MAX_BODY_BYTES));
+        assertRejections(PasskeyRequestDecoder.Reason.BODY_TOO_LARGE, 1);
+    }
+
+    @Test
+    void rejectsInvalidFields() {
+        var tooLongCredentialId = "A".repeat(1368);
+        assertRejected("字段长度超出限制: credentialId", decode("""
+            {"sessionId": "s", "credentialId": "%s", "authenticatorData": "AAAA",
+             "clientDataJSON": "e30", "signature": "AAAA"}
+            """.formatted(tooLongCredentialId), null));
+        assertRejected("字段编码无效: credentialId", decode("""
+            {"sessionId": "s", "credentialId": "AA+/", "authenticatorData": "AAAA",
+             "clientDataJSON": "e30", "signature": "AAAA"}
+            """, null));
+        assertRejected("缺少必填字段: credentialId", decode("{\"sessionId\": \"s\"}", null));
+        assertRejected("请求体格式错误", decode("{\"sessionId\": ", null));
+
+        assertRejections(PasskeyRequestDecoder.Reason.FIELD_TOO_LONG, 1);
+        assertRejections(PasskeyRequestDecoder.Reason.INVALID_ENCODING, 1);
+        assertRejections(PasskeyRequestDecoder.Reason.MISSING_FIELD, 1);
+        assertRejections(PasskeyRequestDecoder.Reason.MALFORMED_BODY, 1);
+    }
+
+    @Test
+    void rejectsBadPadding() {
+        for (String value : List.of("ab", "ab==", "abc", "abc=", "abcd")) {
+            decoder.requireBase64Url("signature", value, 64);
+            // Nothing the check lets through makes the decoder fail later on
+            Base64.getUrlDecoder().decode(value);
+        }
+        for (String value : List.of("ab=", "abc==", "abcd=", "abcd==", "a===", "ab===")) {
+            var e = assertThrows(IllegalStateException.class,
+                () -> decoder.requireBase64Url("signature", value, 64), value);
+            assertEquals("字段编码无效: signature", e.getMessage());
+        }
+        assertRejections(PasskeyRequestDecoder.Reason.INVALID_ENCODING, 6);
+    }
+
+    @Test
+    void acceptsLongestCredentialId() {
+        // 1023 bytes encode to 1364 unpadded characters
+        decoder.requireBase64Url("credentialId", "A".repeat(1364), 1023);
+        assertRejections(PasskeyRequestDecoder.Reason.FIELD_TOO_LONG, 0);
+    }
+
+    private Mono<PasskeyEndpoint.AuthenticationVerifyRequest> decode(
+        String json, Long contentLength) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        var builder = MockServerRequest.builder();
+        builder.header("Content-Length",
+            String.valueOf(contentLength != null ? contentLength : bytes.length));
+        var request = builder.body(Flux.just(
+            (DataBuffer) DefaultDataBufferFactory.sharedInstance.wrap(bytes)));
+        return decoder.decode(request, PasskeyEndpoint.AuthenticationVerifyRequest.class,
+            PasskeyEndpoint.AuthenticationVerifyRequest.MAX_BODY_BYTES);
+    }
+
+    private static void assertRejected(String message, Mono<?> result) {
+        assertEquals(message, assertThrows(IllegalStateException.class, result::block)
+            .getMessage());
+    }
+
+    private void assertRejections(PasskeyRequestDecoder.Reason reason, long expected) {
+        assertEquals(expected, decoder.stats().get(reason));
+    }
+}
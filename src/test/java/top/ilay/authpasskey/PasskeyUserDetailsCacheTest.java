@@ -0,0 +1,115 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.Role;
+import run.halo.app.core.extension.RoleBinding;
+import run.halo.app.core.extension.User;
+import run.halo.app.extension.Metadata;
+
+class PasskeyUserDetailsCacheTest {
+
+    InMemoryExtensionClient client;
+    ReactiveUserDetailsService userDetailsService;
+    PasskeySettings settings;
+    PasskeyUserDetailsCache cache;
+
+    @BeforeEach
+    void setUp() {
+        client = new InMemoryExtensionClient();
+        userDetailsService = mock(ReactiveUserDetailsService.class);
+        when(userDetailsService.findByUsername("alice")).thenAnswer(invocation -> Mono.just(
+            org.springframework.security.core.userdetails.User.withUsername("alice")
+                .password("")
+                .authorities("ROLE_USER")
+                .build()));
+        when(userDetailsService.findByUsername("ghost")).thenReturn(Mono.empty());
+        settings = mock(PasskeySettings.class);
+        when(settings.performance()).thenReturn(new PasskeySettings.Performance(true));
+        cache = new PasskeyUserDetailsCache(client, userDetailsService, settings);
+        cache.onPluginStarted();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.destroy();
+    }
+
+    @Test
+    void cachesUntilUserOrRoleBindingChanges() {
+        var user = client.create(user("alice")).block();
+        var binding = client.create(RoleBinding.create("alice", "editor")).block();
+        lookUp(2);
+        verify(userDetailsService, times(1)).findByUsername("alice");
+
+        // Only status changes, as after a sign-in
+        user.setStatus(new User.UserStatus());
+        user.getStatus().setPermalink("/authors/alice");
+        user = client.update(user).block();
+        lookUp(1);
+        verify(userDetailsService, times(1)).findByUsername("alice");
+
+        user.getSpec().setDisabled(true);
+        client.update(user).block();
+        lookUp(1);
+        verify(userDetailsService, times(2)).findByUsername("alice");
+
+        client.delete(binding).block();
+        lookUp(1);
+        verify(userDetailsService, times(3)).findByUsername("alice");
+
+        var role = new Role();
+        role.setMetadata(new Metadata());
+        role.getMetadata().setName("editor");
+        role.setRules(List.of());
+        client.update(client.create(role).block()).block();
+        lookUp(1);
+        verify(userDetailsService, times(4)).findByUsername("alice");
+
+        var stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(4, stats.misses());
+        assertEquals(1.0 / 3, stats.hitRatio(), 1e-9);
+        assertEquals(4, stats.invalidations());
+    }
+
+    @Test
+    void doesNotCacheUnknownUsers() {
+        assertNull(cache.findByUsername("ghost").block());
+        assertNull(cache.findByUsername("ghost").block());
+        verify(userDetailsService, times(2)).findByUsername("ghost");
+    }
+
+    @Test
+    void bypassesCacheWhenDisabled() {
+        when(settings.performance()).thenReturn(PasskeySettings.Performance.DEFAULT);
+        lookUp(2);
+        verify(userDetailsService, times(2)).findByUsername("alice");
+        assertEquals(0, cache.stats().hits() + cache.stats().misses());
+    }
+
+    private void lookUp(int times) {
+        for (int i = 0; i < times; i++) {
+            assertEquals("alice", cache.findByUsername("alice").block().getUsername());
+        }
+    }
+
+    private static User user(String name) {
+        var user = new User();
+        user.setMetadata(new Metadata());
+        user.getMetadata().setName(name);
+        user.setSpec(new User.UserSpec());
+        return user;
+    }
+}
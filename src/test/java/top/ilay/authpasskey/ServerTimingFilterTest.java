@@ -0,0 +1,114 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+class ServerTimingFilterTest {
+
+    PasskeySettings settings;
+    ServerTimingFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        settings = mock(PasskeySettings.class);
+        when(settings.observability()).thenReturn(new PasskeySettings.Observability(true));
+        filter = new ServerTimingFilter(settings);
+    }
+
+    @Test
+    void emitsHeaderOnlyWhenEnabled() {
+        HandlerFunction<ServerResponse> handler = request -> ServerTiming.timed(
+                ServerTiming.USER, Mono.just("alice"))
+            .flatMap(user -> ServerResponse.ok().build());
+
+        assertTrue(metrics(handle(handler)).containsKey(ServerTiming.TOTAL));
+
+        when(settings.observability()).thenReturn(PasskeySettings.Observability.DEFAULT);
+        assertNull(handle(handler).getResponse().getHeaders().getFirst(ServerTiming.HEADER));
+    }
+
+    @Test
+    void recordsConcurrentStages() {
+        HandlerFunction<ServerResponse> handler = request -> Mono.when(
+                ServerTiming.timed(ServerTiming.USER, Mono.delay(Duration.ofMillis(50))),
+                ServerTiming.timed(ServerTiming.CREDENTIAL, Mono.delay(Duration.ofMillis(50))),
+                Mono.deferContextual(context -> Mono.fromRunnable(() -> {
+                    long start = System.nanoTime();
+                    sleep(50);
+                    ServerTiming.from(context).record(ServerTiming.VERIFY, start);
+                })).subscribeOn(Schedulers.boundedElastic()))
+            .then(ServerResponse.ok().build());
+
+        var metrics = metrics(handle(handler));
+
+        assertTrue(metrics.get(ServerTiming.USER) >= 50, metrics.toString());
+        assertTrue(metrics.get(ServerTiming.CREDENTIAL) >= 50, metrics.toString());
+        assertTrue(metrics.get(ServerTiming.VERIFY) >= 50, metrics.toString());
+        // The stages overlapped instead of adding up
+        assertTrue(metrics.get(ServerTiming.TOTAL) < 150, metrics.toString());
+    }
+
+    @Test
+    void keepsRequestsApart() {
+        HandlerFunction<ServerResponse> first = request -> ServerTiming.timed(
+            ServerTiming.USER, ServerResponse.ok().build());
+        HandlerFunction<ServerResponse> second = request -> ServerTiming.timed(
+            ServerTiming.COUNTER, ServerResponse.ok().build());
+
+        var firstMetrics = metrics(handle(first));
+        var secondMetrics = metrics(handle(second));
+
+        assertEquals(2, firstMetrics.size());
+        assertTrue(firstMetrics.containsKey(ServerTiming.USER));
+        assertEquals(2, secondMetrics.size());
+        assertTrue(secondMetrics.containsKey(ServerTiming.COUNTER));
+        assertFalse(secondMetrics.containsKey(ServerTiming.USER));
+        // Outside of a filtered request nothing is recorded
+        assertEquals("alice", ServerTiming.timed(ServerTiming.USER, Mono.just("alice")).block());
+    }
+
+    private MockServerWebExchange handle(HandlerFunction<ServerResponse> handler) {
+        var exchange = MockServerWebExchange.from(
+            MockServerHttpRequest.post("/authentication/verify"));
+        var request = MockServerRequest.builder().exchange(exchange).build();
+        filter.filter(request, handler).block();
+        exchange.getResponse().setComplete().block();
+        return exchange;
+    }
+
+    /**
+     * The durations in the header, in milliseconds by metric.
+     */
+    private static Map<String, Double> metrics(MockServerWebExchange exchange) {
+        var header = exchange.getResponse().getHeaders().getFirst(ServerTiming.HEADER);
+        return Arrays.stream(header.split(", "))
+            .map(metric -> metric.split(";dur="))
+            .collect(Collectors.toMap(parts -> parts[0], parts -> Double.valueOf(parts[1])));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
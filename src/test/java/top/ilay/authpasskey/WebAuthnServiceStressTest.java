@@ -0,0 +1,325 @@
+package top.ilay.authpasskey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.web.server.context.ServerSecurityContextRepository;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.index.query.Queries;
+import run.halo.app.security.LoginHandlerEnhancer;
+
+/**
+ * Hammers {@link WebAuthnService} from many threads with emulated authenticators against an
+ * in-memory extension store. Assertions are posted to {@link PasskeyEndpoint}, so submissions
+ * take the path of a real sign-in through the request decoder, the assertion coalescer and the
+ * counter write. Checks that:
+ * <ul>
+ *     <li>no challenge is accepted twice, and each accepted one signs in once,</li>
+ *     <li>stored signature counters never go backwards,</li>
+ *     <li>no counter update is lost,</li>
+ *     <li>nothing is left behind in the store once ceremonies complete.</li>
+ * </ul>
+ *
+ * <p>Each test runs for {@code passkey.stress.duration} (ISO-8601, {@code PT2S} by default),
+ * use {@code gradle soak} for long runs.</p>
+ */
+class WebAuthnServiceStressTest {
+
+    static final String RP_ID = "localhost";
+    static final String ORIGIN = "http://localhost:8090";
+    static final int THREADS = 16;
+    static final int AUTHENTICATORS = 8;
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+    final Duration duration =
+        Duration.parse(System.getProperty("passkey.stress.duration", "PT2S"));
+
+    final AtomicInteger signIns = new AtomicInteger();
+
+    InMemoryExtensionClient client;
+    WebAuthnService service;
+    PasskeyEndpoint endpoint;
+    CredentialIdFilter credentialIdFilter;
+    CredentialDescriptorCache descriptorCache;
+    ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        client = new InMemoryExtensionClient()
+            .index(PasskeyCredential.class, "spec.username",
+                credential -> credential.getSpec().getUsername())
+            .index(PasskeyCredential.class, "spec.credentialId",
+                credential -> credential.getSpec().getCredentialId());
+        var settings = mock(PasskeySettings.class);
+        when(settings.attestation()).thenReturn(PasskeySettings.Attestation.DEFAULT);
+        when(settings.resilience()).thenReturn(PasskeySettings.Resilience.DEFAULT);
+        when(settings.observability()).thenReturn(PasskeySettings.Observability.DEFAULT);
+        when(settings.performance()).thenReturn(PasskeySettings.Performance.DEFAULT);
+        var credentialService = new PasskeyCredentialService(client, settings);
+        credentialIdFilter = new CredentialIdFilter(client);
+        credentialIdFilter.onPluginStarted();
+        descriptorCache = new CredentialDescriptorCache(client, credentialService);
+        descriptorCache.onPluginStarted();
+        service = new WebAuthnService(credentialService, new AttestationPolicy(settings),
+            credentialIdFilter, descriptorCache);
+        endpoint = new PasskeyEndpoint(service, credentialService,
+            new PasskeyUserDetailsCache(client, userDetailsService(), settings),
+            new CountingSecurityContextRepository(), loginHandlerEnhancer(),
+            stub(PasskeyAuditService.class), new ServerTimingFilter(settings),
+            new PasskeyRequestDecoder(), new AssertionCoalescer());
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        credentialIdFilter.destroy();
+        descriptorCache.destroy();
+    }
+
+    @Test
+    void challengeIsAcceptedOnlyOnce() throws Exception {
+        var authenticator = register("alice", EmulatedAuthenticator.create());
+        long deadline = System.nanoTime() + duration.toNanos();
+        int rounds = 0;
+
+        while (System.nanoTime() < deadline) {
+            var options = authenticationOptions(null);
+            var assertion = authenticator.authenticate(RP_ID, ORIGIN, options.challenge());
+            var start = new CountDownLatch(1);
+            var accepted = new AtomicInteger();
+            List<Future<?>> submissions = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                submissions.add(executor.submit(() -> {
+                    start.await();
+                    if (verify(options.sessionId(), assertion)) {
+                        accepted.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> submission : submissions) {
+                submission.get();
+            }
+            assertEquals(1, accepted.get(), "round " + rounds);
+            rounds++;
+        }
+
+        assertTrue(rounds > 0);
+        assertEquals(rounds, signIns.get());
+        assertStoreSettled(1);
+    }
+
+    @Test
+    void countersNeverGoBackwardsAndNoUpdateIsLost() throws Exception {
+        List<EmulatedAuthenticator> authenticators = new ArrayList<>();
+        for (int i = 0; i < AUTHENTICATORS; i++) {
+            authenticators.add(register("user-" + (i % 3), EmulatedAuthenticator.create()));
+        }
+        Map<String, AtomicLong> highestAccepted = new ConcurrentHashMap<>();
+        authenticators.forEach(authenticator ->
+            highestAccepted.put(authenticator.credentialIdBase64(), new AtomicLong()));
+        var violation = new AtomicReference<String>();
+        var accepted = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        // Samples stored counters and fails on any decrease
+        var monitor = executor.submit(() -> {
+            Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+            while (System.nanoTime() < deadline) {
+                for (String credentialId : highestAccepted.keySet()) {
+                    long stored = storedCounter(credentialId);
+                    Long previous = lastSeen.put(credentialId, stored);
+                    if (previous != null && stored < previous) {
+                        violation.compareAndSet(null,
+                            credentialId + " went from " + previous + " to " + stored);
+                    }
+                }
+                Thread.onSpinWait();
+            }
+            return null;
+        });
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS - 1; i++) {
+            workers.add(executor.submit(() -> {
+                var random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    var authenticator = authenticators.get(random.nextInt(AUTHENTICATORS));
+                    var options = authenticationOptions(null);
+                    var assertion =
+                        authenticator.authenticate(RP_ID, ORIGIN, options.challenge());
+                    // Out of order submissions are expected to be rejected by the counter check
+                    if (verify(options.sessionId(), assertion)) {
+                        accepted.incrementAndGet();
+                        highestAccepted.get(authenticator.credentialIdBase64())
+                            .accumulateAndGet(assertion.counter(), Math::max);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        monitor.get();
+
+        assertNull(violation.get());
+        assertTrue(accepted.get() > 0);
+        assertEquals(accepted.get(), signIns.get());
+        highestAccepted.forEach((credentialId, highest) ->
+            assertEquals(highest.get(), storedCounter(credentialId), credentialId));
+        assertStoreSettled(AUTHENTICATORS);
+    }
+
+    private EmulatedAuthenticator register(String username,
+        EmulatedAuthenticator authenticator) {
+        JsonNode options = json(service.generateRegistrationOptions(username, null, ORIGIN)
+            .block());
+        byte[] challenge = decode(options.get("challenge").asText());
+        var registration = authenticator.register(RP_ID, ORIGIN, challenge);
+        service.verifyRegistration(username, registration.credentialId(),
+                registration.attestationObject(), registration.clientDataJSON(),
+                List.of("internal"), null, ORIGIN)
+            .block();
+        return authenticator;
+    }
+
+    private AuthenticationOptions authenticationOptions(String username) {
+        JsonNode options = json(service.generateAuthenticationOptions(username, ORIGIN).block());
+        return new AuthenticationOptions(decode(options.get("challenge").asText()),
+            options.get("sessionId").asText());
+    }
+
+    /**
+     * Post the assertion with a web session of its own, as another browser would.
+     */
+    private boolean verify(String sessionId, EmulatedAuthenticator.Assertion assertion)
+        throws IOException {
+        var body = objectMapper.writeValueAsBytes(new PasskeyEndpoint.AuthenticationVerifyRequest(
+            sessionId,
+            EmulatedAuthenticator.encode(assertion.credentialId()),
+            EmulatedAuthenticator.encode(assertion.authenticatorData()),
+            EmulatedAuthenticator.encode(assertion.clientDataJSON()),
+            EmulatedAuthenticator.encode(assertion.signature()),
+            null,
+            ORIGIN));
+        var request = MockServerRequest.builder()
+            .method(HttpMethod.POST)
+            .uri(URI.create("/authentication/verify"))
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .exchange(MockServerWebExchange.from(
+                MockServerHttpRequest.post("/authentication/verify")))
+            .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body)));
+        var response = endpoint.endpoint().route(request)
+            .flatMap(handler -> handler.handle(request))
+            .block();
+        return response.statusCode() == HttpStatus.OK;
+    }
+
+    /**
+     * Mocks that do not record invocations, which would pile up over long runs.
+     */
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    private static ReactiveUserDetailsService userDetailsService() {
+        var userDetailsService = stub(ReactiveUserDetailsService.class);
+        when(userDetailsService.findByUsername(anyString())).thenAnswer(invocation ->
+            Mono.just(User.withUsername(invocation.<String>getArgument(0)).password("")
+                .authorities("ROLE_USER").build()));
+        return userDetailsService;
+    }
+
+    private static LoginHandlerEnhancer loginHandlerEnhancer() {
+        var loginHandlerEnhancer = stub(LoginHandlerEnhancer.class);
+        when(loginHandlerEnhancer.onLoginSuccess(any(), any())).thenReturn(Mono.empty());
+        return loginHandlerEnhancer;
+    }
+
+    private long storedCounter(String credentialId) {
+        var listOptions = ListOptions.builder()
+            .fieldQuery(Queries.equal("spec.credentialId", credentialId))
+            .build();
+        return client.listAll(PasskeyCredential.class, listOptions, null)
+            .blockFirst()
+            .getSpec()
+            .getSignatureCount();
+    }
+
+    private void assertStoreSettled(int credentials) {
+        assertEquals(0, service.pendingChallenges());
+        assertEquals(credentials, client.size(PasskeyCredential.class));
+    }
+
+    private JsonNode json(byte[] bytes) {
+        try {
+            return objectMapper.readTree(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] decode(String value) {
+        return Base64.getUrlDecoder().decode(value);
+    }
+
+    record AuthenticationOptions(byte[] challenge, String sessionId) {}
+
+    class CountingSecurityContextRepository implements ServerSecurityContextRepository {
+
+        @Override
+        public Mono<Void> save(ServerWebExchange exchange, SecurityContext context) {
+            return Mono.fromRunnable(signIns::incrementAndGet);
+        }
+
+        @Override
+        public Mono<SecurityContext> load(ServerWebExchange exchange) {
+            return Mono.empty();
+        }
+    }
+}
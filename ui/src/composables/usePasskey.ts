@@ -1,31 +1,32 @@
 import { ref } from 'vue'
 import axios from 'axios'
-import type { PasskeyCredential, RegistrationOptions, AuthenticationOptions } from '@/types'
+import type {
+  PasskeyCredential,
+  RegistrationOptions,
+  AuthenticationOptions,
+  BatchItemResult,
+} from '@/types'
+import { base64UrlDecode, base64UrlEncode } from '@/utils/base64url'
+import { CBOR_CONTENT_TYPE, encodeCbor, isCborSupported, type CborValue } from '@/utils/cbor'
 
 const apiClient = axios.create({
   baseURL: '/apis/api.passkey.halo.run/v1alpha1',
   withCredentials: true,
 })
 
-// Base64URL encode/decode utilities
-function base64UrlEncode(buffer: ArrayBuffer): string {
-  const bytes = new Uint8Array(buffer)
-  let binary = ''
-  for (let i = 0; i < bytes.length; i++) {
-    binary += String.fromCharCode(bytes[i])
+// Post a ceremony result as CBOR with raw buffers when the browser can encode it, otherwise as
+// JSON with Base64URL encoded buffers
+function postCeremony(url: string, fields: Record<string, CborValue>) {
+  if (isCborSupported()) {
+    return apiClient.post(url, encodeCbor(fields), {
+      headers: { 'Content-Type': CBOR_CONTENT_TYPE },
+    })
   }
-  return btoa(binary).replace(/\+/g, '-').replace(/\//g, '_').replace(/=/g, '')
-}
-
-function base64UrlDecode(str: string): ArrayBuffer {
-  const base64 = str.replace(/-/g, '+').replace(/_/g, '/')
-  const padded = base64 + '='.repeat((4 - (base64.length % 4)) % 4)
-  const binary = atob(padded)
-  const bytes = new Uint8Array(binary.length)
-  for (let i = 0; i < binary.length; i++) {
-    bytes[i] = binary.charCodeAt(i)
-  }
-  return bytes.buffer
+  const json: Record<string, unknown> = {}
+  Object.entries(fields).forEach(([key, value]) => {
+    json[key] = value instanceof ArrayBuffer ? base64UrlEncode(value) : value
+  })
+  return apiClient.post(url, json)
 }
 
 export function usePasskey() {
@@ -122,11 +123,12 @@ export function usePasskey() {
           residentKey: options.authenticatorSelection.residentKey as ResidentKeyRequirement,
           userVerification: options.authenticatorSelection.userVerification as UserVerificationRequirement,
         },
-        excludeCredentials: options.excludeCredentials.map((id) => ({
-          type: 'public-key' as PublicKeyCredentialType,
-          id: base64UrlDecode(id),
+        excludeCredentials: options.excludeCredentials.map((descriptor) => ({
+          type: descriptor.type as PublicKeyCredentialType,
+          id: base64UrlDecode(descriptor.id),
+          transports: descriptor.transports as AuthenticatorTransport[] | undefined,
         })),
-        attestation: 'none',
+        attestation: (options.attestation as AttestationConveyancePreference) || 'none',
       }
 
       // Step 3: Call WebAuthn API
@@ -141,16 +143,14 @@ export function usePasskey() {
       const attestationResponse = credential.response as AuthenticatorAttestationResponse
 
       // Step 4: Send response to server
-      const registrationData = {
-        credentialId: base64UrlEncode(credential.rawId),
-        attestationObject: base64UrlEncode(attestationResponse.attestationObject),
-        clientDataJSON: base64UrlEncode(attestationResponse.clientDataJSON),
+      await postCeremony('/registration/verify', {
+        credentialId: credential.rawId,
+        attestationObject: attestationResponse.attestationObject,
+        clientDataJSON: attestationResponse.clientDataJSON,
         transports: attestationResponse.getTransports?.() || [],
         displayName,
         origin,
-      }
-
-      await apiClient.post('/registration/verify', registrationData)
+      })
 
       // Refresh credentials list
       await fetchCredentials()
@@ -208,9 +208,10 @@ export function usePasskey() {
         userVerification: options.userVerification as UserVerificationRequirement,
         allowCredentials:
           options.allowCredentials.length > 0
-            ? options.allowCredentials.map((id) => ({
-                type: 'public-key' as PublicKeyCredentialType,
-                id: base64UrlDecode(id),
+            ? options.allowCredentials.map((descriptor) => ({
+                type: descriptor.type as PublicKeyCredentialType,
+                id: base64UrlDecode(descriptor.id),
+                transports: descriptor.transports as AuthenticatorTransport[] | undefined,
               }))
             : undefined,
       }
@@ -227,19 +228,15 @@ export function usePasskey() {
       const assertionResponse = credential.response as AuthenticatorAssertionResponse
 
       // Step 4: Send response to server for verification
-      const authenticationData = {
+      const response = await postCeremony('/authentication/verify', {
         sessionId: options.sessionId,
-        credentialId: base64UrlEncode(credential.rawId),
-        authenticatorData: base64UrlEncode(assertionResponse.authenticatorData),
-        clientDataJSON: base64UrlEncode(assertionResponse.clientDataJSON),
-        signature: base64UrlEncode(assertionResponse.signature),
-        userHandle: assertionResponse.userHandle
-          ? base64UrlEncode(assertionResponse.userHandle)
-          : null,
+        credentialId: credential.rawId,
+        authenticatorData: assertionResponse.authenticatorData,
+        clientDataJSON: assertionResponse.clientDataJSON,
+        signature: assertionResponse.signature,
+        userHandle: assertionResponse.userHandle,
         origin,
-      }
-
-      const response = await apiClient.post('/authentication/verify', authenticationData)
+      })
 
       return response.data
     } catch (e: unknown) {
@@ -305,6 +302,54 @@ export function usePasskey() {
     }
   }
 
+  // Delete several passkeys in one request, returns one result per passkey
+  const deleteCredentials = async (names: string[]) => {
+    loading.value = true
+    error.value = null
+    try {
+      const response = await apiClient.post<{ results: BatchItemResult[] }>(
+        '/credentials/batch-delete',
+        { names },
+      )
+      await fetchCredentials()
+      return response.data.results
+    } catch (e: unknown) {
+      if (axios.isAxiosError(e) && e.response?.data?.message) {
+        error.value = e.response.data.message
+      } else {
+        error.value = e instanceof Error ? e.message : '批量删除凭证失败'
+      }
+      console.error('Failed to delete credentials:', e)
+      throw e
+    } finally {
+      loading.value = false
+    }
+  }
+
+  // Rename several passkeys in one request, returns one result per passkey
+  const renameCredentials = async (items: Array<{ name: string; displayName: string }>) => {
+    loading.value = true
+    error.value = null
+    try {
+      const response = await apiClient.post<{ results: BatchItemResult[] }>(
+        '/credentials/batch-rename',
+        { items },
+      )
+      await fetchCredentials()
+      return response.data.results
+    } catch (e: unknown) {
+      if (axios.isAxiosError(e) && e.response?.data?.message) {
+        error.value = e.response.data.message
+      } else {
+        error.value = e instanceof Error ? e.message : '批量重命名凭证失败'
+      }
+      console.error('Failed to rename credentials:', e)
+      throw e
+    } finally {
+      loading.value = false
+    }
+  }
+
   return {
     loading,
     error,
@@ -315,5 +360,7 @@ export function usePasskey() {
     authenticateWithPasskey,
     deleteCredential,
     updateCredentialName,
+    deleteCredentials,
+    renameCredentials,
   }
 }
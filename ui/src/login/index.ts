@@ -0,0 +1,167 @@
+// Passkey login logic for the Halo login page, built as a standalone content-hashed asset and
+// referenced from templates/login_passkey.html
+import { base64UrlDecode, base64UrlEncode } from '@/utils/base64url'
+import { CBOR_CONTENT_TYPE, encodeCbor, isCborSupported } from '@/utils/cbor'
+import type { AuthenticationOptions } from '@/types'
+
+const API = '/apis/api.passkey.halo.run/v1alpha1'
+
+const PASSKEY_ICON =
+  '<svg xmlns="http://www.w3.org/2000/svg" width="24" height="24" viewBox="0 0 24 24"><path fill="currentColor" d="M5 20q-.825 0-1.412-.587T3 18v-.8q0-.85.438-1.562T4.6 14.55q1.55-.775 3.15-1.162T11 13q.35 0 .7.013t.7.062q.275.025.437.213t.163.462q.05 1.175.575 2.213t1.4 1.762q.175.125.275.313t.1.412V19q0 .425-.288.713T14.35 20zm6-8q-1.65 0-2.825-1.175T7 8t1.175-2.825T11 4t2.825 1.175T15 8t-1.175 2.825T11 12m7.5 2q.425 0 .713-.288T19.5 13t-.288-.712T18.5 12t-.712.288T17.5 13t.288.713t.712.287m.15 8.65l-1-1q-.05-.05-.15-.35v-4.45q-1.1-.325-1.8-1.237T15 13.5q0-1.45 1.025-2.475T18.5 10t2.475 1.025T22 13.5q0 1.125-.638 2t-1.612 1.25l.9.9q.15.15.15.35t-.15.35l-.8.8q-.15.15-.15.35t.15.35l.8.8q.15.15.15.35t-.15.35l-1.3 1.3q-.15.15-.35.15t-.35-.15"/></svg><span>使用通行密钥登录</span>'
+
+function showError(message: string) {
+  const errorDiv = document.getElementById('passkey-error')
+  if (errorDiv) {
+    errorDiv.textContent = message
+    errorDiv.style.display = 'block'
+  }
+}
+
+function hideError() {
+  const errorDiv = document.getElementById('passkey-error')
+  if (errorDiv) {
+    errorDiv.style.display = 'none'
+  }
+}
+
+async function readErrorMessage(response: Response, fallback: string): Promise<string> {
+  const body = await response.json().catch(() => ({}))
+  return body.message || fallback
+}
+
+async function handlePasskeyLogin(submitBtn: HTMLButtonElement) {
+  hideError()
+
+  submitBtn.disabled = true
+  const originalHTML = submitBtn.innerHTML
+  submitBtn.innerHTML = '<span>正在验证...</span>'
+
+  const origin = window.location.origin
+
+  try {
+    const optionsResponse = await fetch(API + '/authentication/options', {
+      method: 'POST',
+      headers: { 'Content-Type': 'application/json' },
+      body: JSON.stringify({ origin }),
+      credentials: 'include',
+    })
+    if (!optionsResponse.ok) {
+      throw new Error(await readErrorMessage(optionsResponse, '无法获取认证选项'))
+    }
+    const options: AuthenticationOptions = await optionsResponse.json()
+
+    const credential = (await navigator.credentials.get({
+      publicKey: {
+        challenge: base64UrlDecode(options.challenge),
+        rpId: options.rpId,
+        timeout: options.timeout,
+        userVerification: options.userVerification as UserVerificationRequirement,
+        allowCredentials:
+          options.allowCredentials && options.allowCredentials.length > 0
+            ? options.allowCredentials.map((descriptor) => ({
+                type: descriptor.type as PublicKeyCredentialType,
+                id: base64UrlDecode(descriptor.id),
+                transports: descriptor.transports as AuthenticatorTransport[] | undefined,
+              }))
+            : undefined,
+      },
+    })) as PublicKeyCredential | null
+
+    if (!credential) {
+      throw new Error('认证已取消')
+    }
+
+    const assertionResponse = credential.response as AuthenticatorAssertionResponse
+
+    // 构建验证 URL，包含 remember-me 参数
+    let verifyUrl = API + '/authentication/verify'
+    const rememberMe = document.getElementById('remember-me') as HTMLInputElement | null
+    if (rememberMe && rememberMe.checked) {
+      verifyUrl += '?remember-me=true'
+    }
+
+    // Raw buffers as CBOR when the browser can encode them, Base64URL in JSON otherwise
+    const cbor = isCborSupported()
+    const verifyResponse = await fetch(verifyUrl, {
+      method: 'POST',
+      headers: { 'Content-Type': cbor ? CBOR_CONTENT_TYPE : 'application/json' },
+      body: cbor
+        ? encodeCbor({
+            origin,
+            sessionId: options.sessionId,
+            credentialId: credential.rawId,
+            authenticatorData: assertionResponse.authenticatorData,
+            clientDataJSON: assertionResponse.clientDataJSON,
+            signature: assertionResponse.signature,
+            userHandle: assertionResponse.userHandle,
+          })
+        : JSON.stringify({
+            origin,
+            sessionId: options.sessionId,
+            credentialId: base64UrlEncode(credential.rawId),
+            authenticatorData: base64UrlEncode(assertionResponse.authenticatorData),
+            clientDataJSON: base64UrlEncode(assertionResponse.clientDataJSON),
+            signature: base64UrlEncode(assertionResponse.signature),
+            userHandle: assertionResponse.userHandle
+              ? base64UrlEncode(assertionResponse.userHandle)
+              : null,
+          }),
+      credentials: 'include',
+    })
+
+    if (!verifyResponse.ok) {
+      throw new Error(await readErrorMessage(verifyResponse, '认证失败'))
+    }
+
+    const params = new URLSearchParams(window.location.search)
+    window.location.href = params.get('redirect_uri') || '/uc'
+  } catch (e: unknown) {
+    const error = e as { name?: string; message?: string }
+    if (error.name === 'NotAllowedError') {
+      showError('认证已取消或被拒绝')
+    } else if (error.name === 'AbortError') {
+      showError('操作已取消')
+    } else if (error.name === 'TimeoutError' || error.message?.includes('timed out')) {
+      showError('操作超时，请重试')
+    } else {
+      showError(error.message || '认证失败')
+    }
+    submitBtn.disabled = false
+    submitBtn.innerHTML = originalHTML
+  }
+}
+
+function init() {
+  // 查找登录表单的提交按钮
+  const submitBtn = document.querySelector<HTMLButtonElement>('.halo-form button[type="submit"]')
+  if (!submitBtn) {
+    return
+  }
+
+  // 检查浏览器是否支持 WebAuthn
+  if (!window.PublicKeyCredential) {
+    const warnDiv = document.getElementById('passkey-warn')
+    if (warnDiv) {
+      warnDiv.style.display = 'block'
+    }
+    submitBtn.disabled = true
+    submitBtn.style.opacity = '0.5'
+    return
+  }
+
+  // 修改按钮文字，保持原有样式
+  submitBtn.innerHTML = PASSKEY_ICON
+
+  // 保持 type="submit" 以维持样式，但阻止默认表单提交行为
+  submitBtn.addEventListener('click', (e) => {
+    e.preventDefault()
+    handlePasskeyLogin(submitBtn)
+  })
+}
+
+// 等待 DOM 加载完成
+if (document.readyState === 'loading') {
+  document.addEventListener('DOMContentLoaded', init)
+} else {
+  init()
+}
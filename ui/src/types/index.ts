@@ -20,6 +20,18 @@ export interface PasskeyCredential {
   }
 }
 
+export interface BatchItemResult {
+  name: string
+  success: boolean
+  message?: string
+}
+
+export interface CredentialDescriptor {
+  type: string
+  id: string
+  transports?: string[]
+}
+
 export interface RegistrationOptions {
   challenge: string
   rp: {
@@ -31,7 +43,7 @@ export interface RegistrationOptions {
     name: string
     displayName: string
   }
-  excludeCredentials: string[]
+  excludeCredentials: CredentialDescriptor[]
   authenticatorSelection: {
     authenticatorAttachment?: string
     residentKey: string
@@ -42,13 +54,14 @@ export interface RegistrationOptions {
     type: string
     alg: number
   }>
+  attestation?: string
 }
 
 export interface AuthenticationOptions {
   challenge: string
   rpId: string
   timeout: number
-  allowCredentials: string[]
+  allowCredentials: CredentialDescriptor[]
   userVerification: string
   sessionId: string
 }
@@ -0,0 +1,79 @@
+// Minimal CBOR (RFC 8949) encoder for the ceremony verify requests, shared by the console bundle
+// and the login page script. Buffers are written as byte strings, so they need no Base64URL.
+export type CborValue =
+  | null
+  | undefined
+  | boolean
+  | number
+  | string
+  | ArrayBuffer
+  | Uint8Array
+  | CborValue[]
+  | { [key: string]: CborValue }
+
+export const CBOR_CONTENT_TYPE = 'application/cbor'
+
+// The verify requests only carry strings, buffers and string lists
+export function isCborSupported(): boolean {
+  return typeof TextEncoder !== 'undefined' && typeof Uint8Array !== 'undefined'
+}
+
+export function encodeCbor(value: CborValue): Uint8Array {
+  const out: number[] = []
+  write(out, value)
+  return new Uint8Array(out)
+}
+
+function writeHead(out: number[], majorType: number, length: number) {
+  const major = majorType << 5
+  if (length < 24) {
+    out.push(major | length)
+  } else if (length < 0x100) {
+    out.push(major | 24, length)
+  } else if (length < 0x10000) {
+    out.push(major | 25, length >> 8, length & 0xff)
+  } else {
+    out.push(major | 26, (length >>> 24) & 0xff, (length >> 16) & 0xff, (length >> 8) & 0xff)
+    out.push(length & 0xff)
+  }
+}
+
+function writeBytes(out: number[], majorType: number, bytes: Uint8Array) {
+  writeHead(out, majorType, bytes.length)
+  for (let i = 0; i < bytes.length; i++) {
+    out.push(bytes[i])
+  }
+}
+
+function write(out: number[], value: CborValue) {
+  if (value === null || value === undefined) {
+    out.push(0xf6)
+  } else if (typeof value === 'boolean') {
+    out.push(value ? 0xf5 : 0xf4)
+  } else if (typeof value === 'number') {
+    if (!Number.isInteger(value) || value > 0xffffffff || value < -0x100000000) {
+      throw new Error('Unsupported CBOR number: ' + value)
+    }
+    if (value >= 0) {
+      writeHead(out, 0, value)
+    } else {
+      writeHead(out, 1, -1 - value)
+    }
+  } else if (typeof value === 'string') {
+    writeBytes(out, 3, new TextEncoder().encode(value))
+  } else if (value instanceof ArrayBuffer) {
+    writeBytes(out, 2, new Uint8Array(value))
+  } else if (value instanceof Uint8Array) {
+    writeBytes(out, 2, value)
+  } else if (Array.isArray(value)) {
+    writeHead(out, 4, value.length)
+    value.forEach((item) => write(out, item))
+  } else {
+    const entries = Object.entries(value).filter(([, item]) => item !== undefined)
+    writeHead(out, 5, entries.length)
+    entries.forEach(([key, item]) => {
+      write(out, key)
+      write(out, item)
+    })
+  }
+}
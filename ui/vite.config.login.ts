@@ -0,0 +1,28 @@
+import { fileURLToPath, URL } from 'url'
+
+import { defineConfig } from 'vite'
+
+// Builds the login page script (src/login) as a standalone, minified and content-hashed asset.
+// The Gradle build copies it into the plugin's static resources and writes the hashed file name
+// into templates/login_passkey.html, see processLoginResources in the root build.gradle.
+export default defineConfig({
+  resolve: {
+    alias: {
+      '@': fileURLToPath(new URL('./src', import.meta.url)),
+    },
+  },
+  build: {
+    outDir: fileURLToPath(new URL('./build/login', import.meta.url)),
+    emptyOutDir: true,
+    manifest: true,
+    minify: true,
+    target: 'es2017',
+    rollupOptions: {
+      input: fileURLToPath(new URL('./src/login/index.ts', import.meta.url)),
+      output: {
+        format: 'iife',
+        entryFileNames: 'passkey-login.[hash].js',
+      },
+    },
+  },
+})